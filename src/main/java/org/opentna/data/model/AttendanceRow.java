@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A flat row of an attendance record, read without loading the user and the proximity card.
+ *
+ * <p>Serialized with the same property names as {@link org.opentna.data.model.entity.Attendance}.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AttendanceRow implements Serializable {
+
+  private Long id;
+
+  @JsonProperty("user")
+  private Long userId;
+
+  @JsonProperty("proximityCard")
+  private String cardSerial;
+
+  @JsonProperty("logged")
+  private Long loggedAt;
+
+  @JsonProperty("created")
+  private Long createdAt;
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The result of provisioning one proximity card of a bulk request.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardProvisionResult implements Serializable {
+
+  public enum Status {
+    CREATED, DUPLICATE, INVALID
+  }
+
+  @JsonProperty("serial_no")
+  private String serialNo;
+
+  private Status status;
+
+  /**
+   * The ID of the created card, null unless created.
+   */
+  private Long id;
+
+  /**
+   * The reason the card was not created, null if created.
+   */
+  private String message;
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+/**
+ * How a paginated listing counts the total number of elements.
+ *
+ * @author James Ho
+ */
+public enum CountMode {
+
+  /**
+   * Does not count, the cheapest mode for scrolling through a listing.
+   */
+  NONE,
+
+  /**
+   * Counts with a {@code COUNT(*)} query on every page.
+   */
+  EXACT,
+
+  /**
+   * Reuses a count cached for a while, which may be stale by the writes made since.
+   */
+  APPROXIMATE
+
+}
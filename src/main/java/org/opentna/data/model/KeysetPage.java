@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A page of a keyset (seek) paginated listing, continued by an opaque page token instead of an
+ * offset.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeysetPage<T> implements Serializable {
+
+  private List<T> content;
+
+  /**
+   * The token of the next page, null on the last page.
+   */
+  @JsonProperty("next_page_token")
+  private String nextPageToken;
+
+  /**
+   * The total number of elements, null unless counted. May be approximate, see the method
+   * returning the page.
+   */
+  @JsonProperty("total_elements")
+  private Long totalElements;
+
+  /**
+   * Creates a page from the rows of a query limited to {@code size + 1}, the extra row only tells
+   * whether there is a next page.
+   *
+   * @param rows the rows, in seek order
+   * @param size the page size
+   * @param keys the seek keys of a row, a key containing ':' must be the last one
+   * @return a page
+   */
+  public static <T> KeysetPage<T> of(List<T> rows, int size, Function<T, Object[]> keys) {
+    if (rows.size() <= size) {
+      return new KeysetPage<>(rows, null, null);
+    }
+    List<T> content = new ArrayList<>(rows.subList(0, size));
+    return new KeysetPage<>(content, encodeToken(keys.apply(content.get(size - 1))), null);
+  }
+
+  /**
+   * Encodes the seek keys of the last row of a page.
+   *
+   * @param keys the seek keys
+   * @return an opaque page token
+   */
+  public static String encodeToken(Object... keys) {
+    StringBuilder builder = new StringBuilder();
+    for (Object key : keys) {
+      if (builder.length() > 0) {
+        builder.append(':');
+      }
+      builder.append(key);
+    }
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes the seek keys of a page token.
+   *
+   * @param token the page token
+   * @param count the number of seek keys
+   * @return the seek keys
+   * @throws IllegalArgumentException if the token is malformed
+   */
+  public static String[] decodeToken(String token, int count) {
+    String[] keys = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+        .split(":", count);
+    if (keys.length != count) {
+      throw new IllegalArgumentException("Invalid page token");
+    }
+    return keys;
+  }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A user currently on site.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Occupant implements Serializable {
+
+  @JsonProperty("user")
+  private Long userId;
+
+  /**
+   * The time of the tap that brought the user in.
+   */
+  @JsonProperty("since")
+  private Long since;
+
+}
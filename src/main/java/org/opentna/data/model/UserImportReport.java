@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome of a bulk user import, counted per row.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+public class UserImportReport implements Serializable {
+
+  /**
+   * A row that could not be imported.
+   */
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Failure implements Serializable {
+
+    private long line;
+
+    private String username;
+
+    private String message;
+
+  }
+
+  private long created;
+
+  private long updated;
+
+  private long unchanged;
+
+  /**
+   * The number of users left out of the import and disabled, if requested.
+   */
+  private long disabled;
+
+  private long failed;
+
+  /**
+   * The first failures, up to the configured limit, the others are only counted.
+   */
+  private List<Failure> failures = new ArrayList<>();
+
+}
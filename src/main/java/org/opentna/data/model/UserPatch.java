@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.Serializable;
+import java.util.EnumSet;
+import java.util.Set;
+import javax.validation.constraints.Size;
+import lombok.Getter;
+import lombok.ToString;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.Role;
+
+/**
+ * A partial update of a user. Only the fields set on the patch, including those set to null, are
+ * applied, the others are left as they are.
+ *
+ * <p>Setting the roles or proximity cards replaces all of them, left unset the associations are
+ * not loaded at all.
+ *
+ * @author James Ho
+ */
+@Getter
+@ToString(exclude = "password")
+public class UserPatch implements Serializable {
+
+  public enum Field {
+    USERNAME, PASSWORD, MUST_CHANGE_PASSWORD, ENABLED, ROLES, PROXIMITY_CARDS
+  }
+
+  @Size(min = 2, message = "minimum of 2 characters")
+  private String username;
+
+  private String password;
+
+  @JsonProperty("must_change_password")
+  private Boolean mustChangePassword;
+
+  private Boolean enabled;
+
+  private Set<Role> roles;
+
+  private Set<ProximityCard> proximityCards;
+
+  @JsonIgnore
+  private final Set<Field> dirtyFields = EnumSet.noneOf(Field.class);
+
+  public void setUsername(String username) {
+    this.username = username;
+    dirtyFields.add(Field.USERNAME);
+  }
+
+  public void setPassword(String password) {
+    this.password = password;
+    dirtyFields.add(Field.PASSWORD);
+  }
+
+  public void setMustChangePassword(Boolean mustChangePassword) {
+    this.mustChangePassword = mustChangePassword;
+    dirtyFields.add(Field.MUST_CHANGE_PASSWORD);
+  }
+
+  public void setEnabled(Boolean enabled) {
+    this.enabled = enabled;
+    dirtyFields.add(Field.ENABLED);
+  }
+
+  public void setRoles(Set<Role> roles) {
+    this.roles = roles;
+    dirtyFields.add(Field.ROLES);
+  }
+
+  public void setProximityCards(Set<ProximityCard> proximityCards) {
+    this.proximityCards = proximityCards;
+    dirtyFields.add(Field.PROXIMITY_CARDS);
+  }
+
+  /**
+   * Tells whether the given field is set on this patch.
+   *
+   * @param field the field
+   * @return true if the field is set, even to null
+   */
+  public boolean isDirty(Field field) {
+    return dirtyFields.contains(field);
+  }
+
+}
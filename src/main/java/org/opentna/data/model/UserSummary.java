@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A summary of a user for list views, read without the secret, the roles and the proximity cards.
+ *
+ * <p>Serialized with the same property names as {@link org.opentna.data.model.entity.User}.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserSummary implements Serializable {
+
+  private Long id;
+
+  private String username;
+
+  @JsonProperty("must_change_password")
+  private boolean mustChangePassword;
+
+  private boolean enabled;
+
+  @JsonProperty("created")
+  private Long createdAt;
+
+  @JsonProperty("last_modified")
+  private Long lastModifiedAt;
+
+}
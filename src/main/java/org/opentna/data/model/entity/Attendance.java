@@ -26,6 +26,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -33,6 +34,8 @@ import javax.persistence.UniqueConstraint;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 /**
  * Model for attendance records.
@@ -45,12 +48,31 @@ import lombok.NoArgsConstructor;
 @Entity
 @Table(
     name = "attendance_records",
-    uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "card_id", "logged_unix"})
+    uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "card_id", "logged_unix"}),
+    indexes = {
+        @Index(name = "idx_attendance_records_user_logged", columnList = "user_id, logged_unix"),
+        @Index(name = "idx_attendance_records_card_logged", columnList = "card_id, logged_unix"),
+        @Index(name = "idx_attendance_records_logged", columnList = "logged_unix")
+    }
 )
 public class Attendance implements Serializable {
 
+  /**
+   * Uses a pooled sequence instead of an identity column, IDENTITY disables JDBC insert batching.
+   * On databases without sequences (e.g. MySQL) the generator falls back to a table, seeded past
+   * the existing rows by {@code db/mysql/attendance_records_seq.sql}.
+   */
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "attendance_records_seq")
+  @GenericGenerator(
+      name = "attendance_records_seq",
+      strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+      parameters = {
+          @Parameter(name = "sequence_name", value = "attendance_records_seq"),
+          @Parameter(name = "increment_size", value = "50"),
+          @Parameter(name = "optimizer", value = "pooled-lo")
+      }
+  )
   @Column(name = "id", unique = true, nullable = false)
   private Long id;
 
@@ -16,38 +16,68 @@
 
 package org.opentna.data.model.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Locale;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.Type;
 import org.opentna.data.model.BaseEntity;
 
 /**
  * Model for proximity cards.
  *
+ * <p>Serial numbers made of 1 to 16 hex digits, as sent by most readers, are also kept as a
+ * numeric key, so that lookups compare a {@code bigint} instead of a {@code varchar(64)}. The key
+ * is not unique, e.g. {@code 0A} and {@code a} share one, so a lookup by key still compares the
+ * serial number of the matching rows. Hex serial numbers are compared regardless of case, as
+ * the case-insensitive collation of the column does, e.g. {@code 0a1b} is the card {@code 0A1B}.
+ *
+ * <p>Cached in the {@code proximityCards} region of the second-level cache, and by serial number
+ * in the {@code proximityCards.bySerialNo} region, when the cache is enabled.
+ *
  * @author James Ho
  */
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 @EqualsAndHashCode(callSuper = true)
 @ToString(callSuper = true)
 @Entity
-@Table(name = "proximity_cards", uniqueConstraints = @UniqueConstraint(columnNames = "serial_no"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "proximityCards")
+@NaturalIdCache(region = "proximityCards.bySerialNo")
+@Table(
+    name = "proximity_cards",
+    uniqueConstraints = @UniqueConstraint(columnNames = "serial_no"),
+    indexes = @Index(name = "idx_proximity_cards_serial_key", columnList = "serial_key")
+)
 public class ProximityCard extends BaseEntity {
 
+  /**
+   * The maximum number of hex digits of a serial number with a numeric key.
+   */
+  private static final int SERIAL_KEY_DIGITS = 16;
+
   @NotNull
   @JsonProperty("serial_no")
   @Size(min = 1, max = 64)
+  @NaturalId(mutable = true)
   @Column(name = "serial_no", unique = true, nullable = false, length = 64)
   private String serialNo;
 
@@ -59,4 +89,54 @@ public class ProximityCard extends BaseEntity {
   @Column(name = "is_active", nullable = false)
   private boolean enabled;
 
+  @JsonIgnore
+  @Column(name = "serial_key")
+  private Long serialKey;
+
+  public ProximityCard(String serialNo, String description, boolean enabled) {
+    this.serialNo = serialNo;
+    this.description = description;
+    this.enabled = enabled;
+  }
+
+  @PrePersist
+  @PreUpdate
+  void updateSerialKey() {
+    serialKey = toSerialKey(serialNo);
+  }
+
+  /**
+   * Converts a serial number to its numeric key, reading it as an unsigned 64-bit hex number.
+   *
+   * @param serialNo the serial number
+   * @return the numeric key, or null if the serial number is not made of 1 to 16 hex digits
+   */
+  public static Long toSerialKey(String serialNo) {
+    return isHex(serialNo) ? Long.parseUnsignedLong(serialNo, 16) : null;
+  }
+
+  /**
+   * Normalizes a serial number for in-memory comparisons, upper-casing the serial numbers made of
+   * 1 to 16 hex digits. Returns the given instance when it is already normalized.
+   *
+   * @param serialNo the serial number
+   * @return the normalized serial number
+   */
+  public static String normalizeSerialNo(String serialNo) {
+    return isHex(serialNo) ? serialNo.toUpperCase(Locale.ROOT) : serialNo;
+  }
+
+  private static boolean isHex(String serialNo) {
+    if (serialNo == null || serialNo.isEmpty() || serialNo.length() > SERIAL_KEY_DIGITS) {
+      return false;
+    }
+    for (int i = 0; i < serialNo.length(); i++) {
+      char c = serialNo.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f') && (c < 'A' || c > 'F')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
 }
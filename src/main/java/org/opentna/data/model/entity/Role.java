@@ -16,6 +16,7 @@
 
 package org.opentna.data.model.entity;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
@@ -27,12 +28,19 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.Type;
 import org.opentna.data.model.BaseEntity;
 
 /**
  * Model for user's roles.
  *
+ * <p>Cached in the {@code roles} region of the second-level cache, and by name in the
+ * {@code roles.byName} region, when the cache is enabled.
+ *
  * @author James Ho
  */
 @Data
@@ -41,11 +49,15 @@ import org.opentna.data.model.BaseEntity;
 @EqualsAndHashCode(callSuper = true)
 @ToString(callSuper = true)
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "roles")
+@NaturalIdCache(region = "roles.byName")
 @Table(name = "roles", uniqueConstraints = @UniqueConstraint(columnNames = "name"))
 public class Role extends BaseEntity {
 
   @NotNull
   @Size(min = 2, message = "minimum of 2 characters")
+  @NaturalId(mutable = true)
   @Column(name = "name", unique = true, nullable = false, length = 64)
   private String name;
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.model.entity;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.LocalDate;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.opentna.data.model.BaseEntity;
+
+/**
+ * Model for daily timesheets, the first-in, last-out and tap count of a user per local date.
+ *
+ * <p>Maintained from the attendance record write path, the user is kept by ID only.
+ *
+ * @author James Ho
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+@Entity
+@Table(
+    name = "daily_timesheets",
+    uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "work_date"})
+)
+public class Timesheet extends BaseEntity {
+
+  @NotNull
+  @JsonProperty("user_id")
+  @Column(name = "user_id", nullable = false)
+  private Long userId;
+
+  @NotNull
+  @JsonProperty("work_date")
+  @Column(name = "work_date", nullable = false)
+  private LocalDate workDate;
+
+  @JsonProperty("first_in")
+  @Column(name = "first_in_unix", nullable = false)
+  private Long firstInAt;
+
+  @JsonProperty("last_out")
+  @Column(name = "last_out_unix", nullable = false)
+  private Long lastOutAt;
+
+  @JsonProperty("tap_count")
+  @Column(name = "tap_count", nullable = false)
+  private int tapCount;
+
+}
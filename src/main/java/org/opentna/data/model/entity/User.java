@@ -19,6 +19,7 @@ package org.opentna.data.model.entity;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Set;
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -34,26 +35,43 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.Type;
 import org.opentna.data.model.BaseEntity;
 
 /**
  * Model for users.
  *
+ * <p>Updates only cover the modified columns, so that toggling a flag never rewrites the secret.
+ *
+ * <p>Cached in the {@code users} region of the second-level cache, by username in the
+ * {@code users.byUsername} region, and its roles and proximity cards in the {@code users.roles}
+ * and {@code users.proximityCards} regions, when the cache is enabled. The regions are local to
+ * a node, see {@code ehcache.xml}.
+ *
  * @author James Ho
  */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@EqualsAndHashCode(callSuper = true)
-@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true, exclude = {"roles", "proximityCards"})
+@ToString(callSuper = true, exclude = {"roles", "proximityCards"})
 @Entity
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
+@NaturalIdCache(region = "users.byUsername")
 @Table(name = "users", uniqueConstraints = @UniqueConstraint(columnNames = "name"))
 @JsonIgnoreProperties(value = {"password"})
 public class User extends BaseEntity {
 
   @NotNull
   @Size(min = 2, message = "minimum of 2 characters")
+  @NaturalId(mutable = true)
   @Column(name = "name", unique = true, nullable = false, length = 32)
   private String username;
 
@@ -77,6 +95,7 @@ public class User extends BaseEntity {
       inverseJoinColumns = @JoinColumn(name = "role_id"),
       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "role_id"})
   )
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users.roles")
   private Set<Role> roles;
 
   @ManyToMany(targetEntity = ProximityCard.class, cascade = CascadeType.ALL)
@@ -86,6 +105,7 @@ public class User extends BaseEntity {
       inverseJoinColumns = @JoinColumn(name = "card_id", unique = true),
       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "card_id"})
   )
+  @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users.proximityCards")
   private Set<ProximityCard> proximityCards;
 
 }
@@ -17,20 +17,110 @@
 package org.opentna.data.repository;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.persistence.QueryHint;
+import org.opentna.data.model.AttendanceRow;
 import org.opentna.data.model.entity.Attendance;
 import org.opentna.data.model.entity.ProximityCard;
 import org.opentna.data.model.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 /**
  * The repository interface for {@link Attendance} instances.
  *
+ * <p>Range queries compare {@code logged_unix} with plain bounds, so that MySQL only reads the
+ * matching partitions of a partitioned {@code attendance_records} table.
+ *
  * @author James Ho
  */
 public interface AttendanceRepository extends JpaRepository<Attendance, Long> {
 
+  /**
+   * The constructor expression of {@link AttendanceRow}, reads the user ID from the foreign key
+   * column and the serial number from a join instead of loading the entities.
+   */
+  static final String ROW = "new org.opentna.data.model.AttendanceRow("
+      + "a.id, a.user.id, c.serialNo, a.loggedAt, a.createdAt)";
+
   public Collection<Attendance> findByUser(User user);
 
   public Collection<Attendance> findByProximityCard(ProximityCard proximityCard);
 
+  /**
+   * Retrieves the flat rows of the attendance records of the given user, in a single statement.
+   *
+   * @param userId the user ID
+   * @return a list of attendance row, ordered by {@code (loggedAt, id)}
+   */
+  @Query("select " + ROW + " from Attendance a join a.proximityCard c"
+      + " where a.user.id = :userId order by a.loggedAt, a.id")
+  public List<AttendanceRow> findRowsByUserId(@Param("userId") long userId);
+
+  /**
+   * Retrieves the flat rows of the attendance records of the given proximity card, in a single
+   * statement.
+   *
+   * @param cardId the proximity card ID
+   * @return a list of attendance row, ordered by {@code (loggedAt, id)}
+   */
+  @Query("select " + ROW + " from Attendance a join a.proximityCard c"
+      + " where c.id = :cardId order by a.loggedAt, a.id")
+  public List<AttendanceRow> findRowsByProximityCardId(@Param("cardId") long cardId);
+
+  /**
+   * Retrieves the flat rows of the attendance records of the given user, logged before
+   * {@code to} and after the {@code (loggedAt, id)} seek position.
+   *
+   * @param userId the user ID
+   * @param loggedAt the logged time of the seek position
+   * @param id the ID of the seek position
+   * @param to the exclusive upper bound of the logged time
+   * @param pageable the page size, always the first page
+   * @return a list of attendance row, ordered by {@code (loggedAt, id)}
+   */
+  @Query("select " + ROW + " from Attendance a join a.proximityCard c where a.user.id = :userId"
+      + " and a.loggedAt >= :loggedAt and a.loggedAt < :to"
+      + " and (a.loggedAt > :loggedAt or a.id > :id)"
+      + " order by a.loggedAt, a.id")
+  public List<AttendanceRow> findRowsByUserIdAfter(@Param("userId") long userId,
+      @Param("loggedAt") long loggedAt, @Param("id") long id, @Param("to") long to,
+      Pageable pageable);
+
+  /**
+   * Retrieves the flat rows of the attendance records of the given proximity card, logged before
+   * {@code to} and after the {@code (loggedAt, id)} seek position.
+   *
+   * @param cardId the proximity card ID
+   * @param loggedAt the logged time of the seek position
+   * @param id the ID of the seek position
+   * @param to the exclusive upper bound of the logged time
+   * @param pageable the page size, always the first page
+   * @return a list of attendance row, ordered by {@code (loggedAt, id)}
+   */
+  @Query("select " + ROW + " from Attendance a join a.proximityCard c where c.id = :cardId"
+      + " and a.loggedAt >= :loggedAt and a.loggedAt < :to"
+      + " and (a.loggedAt > :loggedAt or a.id > :id)"
+      + " order by a.loggedAt, a.id")
+  public List<AttendanceRow> findRowsByProximityCardIdAfter(@Param("cardId") long cardId,
+      @Param("loggedAt") long loggedAt, @Param("id") long id, @Param("to") long to,
+      Pageable pageable);
+
+  /**
+   * Streams the user ID and logged time of every owned attendance record logged within the given
+   * range, must be consumed within a transaction.
+   *
+   * @param from the inclusive lower bound of the logged time
+   * @param to the exclusive upper bound of the logged time
+   * @return a stream of {@code [userId, loggedAt]}
+   */
+  @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+  @Query("select a.user.id, a.loggedAt from Attendance a"
+      + " where a.user is not null and a.loggedAt >= :from and a.loggedAt < :to")
+  public Stream<Object[]> streamUserIdAndLoggedAt(@Param("from") long from, @Param("to") long to);
+
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.repository;
+
+import java.io.Serializable;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+
+/**
+ * The repository interface of entities with a simple natural ID, backed by
+ * {@link SimpleNaturalIdRepository}.
+ *
+ * @author James Ho
+ */
+@NoRepositoryBean
+public interface NaturalIdRepository<T, ID> extends JpaRepository<T, ID> {
+
+  /**
+   * Retrieves an entity by its natural ID, through the natural ID cache of the second-level
+   * cache when it is enabled for the entity, or with a single query otherwise.
+   *
+   * @param naturalId the natural ID
+   * @return the entity, if any
+   */
+  public Optional<T> findByNaturalId(Serializable naturalId);
+
+  /**
+   * Returns whether lookups by natural ID are resolved through the second-level cache.
+   *
+   * @return true if the natural ID of the entity is cached
+   */
+  public boolean isNaturalIdCached();
+
+}
@@ -16,17 +16,85 @@
 
 package org.opentna.data.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.opentna.data.model.entity.ProximityCard;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * The repository interface for {@link ProximityCard} instances.
  *
  * @author James Ho
  */
-public interface ProximityCardRepository extends JpaRepository<ProximityCard, Long> {
+public interface ProximityCardRepository extends NaturalIdRepository<ProximityCard, Long> {
 
   public Optional<ProximityCard> findBySerialNo(String serialNo);
 
+  public List<ProximityCard> findAllBySerialKey(long serialKey);
+
+  /**
+   * Retrieves the proximity card with the given serial number, through the numeric key if the
+   * serial number has one, where its hex digits match regardless of case. Goes through the natural
+   * ID cache instead when the second-level cache is enabled.
+   *
+   * @param serialNo the serial number
+   * @param fallback whether a hex serial number missing from the key is also looked up by serial
+   *     number, for the cards saved before the key was introduced, until they are backfilled by
+   *     {@code db/mysql/proximity_cards_serial_key.sql}
+   * @return the proximity card, if any
+   */
+  public default Optional<ProximityCard> findBySerialNoOrKey(String serialNo, boolean fallback) {
+    if (isNaturalIdCached()) {
+      return findByNaturalId(serialNo);
+    }
+    Long serialKey = ProximityCard.toSerialKey(serialNo);
+    if (serialKey == null) {
+      return findBySerialNo(serialNo);
+    }
+    for (ProximityCard card : findAllBySerialKey(serialKey)) {
+      if (card.getSerialNo().equalsIgnoreCase(serialNo)) {
+        return Optional.of(card);
+      }
+    }
+    return fallback ? findBySerialNo(serialNo) : Optional.empty();
+  }
+
+  /**
+   * Retrieves the ID, serial number and enabled state of every proximity card.
+   *
+   * @return a list of {@code [id, serialNo, enabled]}
+   */
+  @Query("select c.id, c.serialNo, c.enabled from ProximityCard c")
+  public List<Object[]> findAllIdSerialNoAndEnabled();
+
+  /**
+   * Retrieves the ID and serial number of the proximity cards with the given serial numbers.
+   *
+   * @param serialNos the serial numbers
+   * @return a list of {@code [id, serialNo]}
+   */
+  @Query("select c.id, c.serialNo from ProximityCard c where c.serialNo in :serialNos")
+  public List<Object[]> findAllIdAndSerialNoBySerialNoIn(
+      @Param("serialNos") Collection<String> serialNos);
+
+  /**
+   * Updates the enabled state of the given proximity cards with a single statement, skipping the
+   * cards already in that state.
+   * Flushes the pending changes before and clears the persistence context after, so that the
+   * cards loaded earlier in the transaction are not read stale.
+   *
+   * @param ids the proximity card IDs
+   * @param enabled the enabled state
+   * @param modifiedAt the modified time
+   * @return the number of updated cards
+   */
+  @Modifying(clearAutomatically = true, flushAutomatically = true)
+  @Query("update ProximityCard c set c.enabled = :enabled, c.lastModifiedAt = :modifiedAt"
+      + " where c.id in :ids and c.enabled <> :enabled")
+  public int updateEnabledByIdIn(@Param("ids") Collection<Long> ids,
+      @Param("enabled") boolean enabled, @Param("modifiedAt") long modifiedAt);
+
 }
@@ -18,14 +18,13 @@ package org.opentna.data.repository;
 
 import java.util.Optional;
 import org.opentna.data.model.entity.Role;
-import org.springframework.data.jpa.repository.JpaRepository;
 
 /**
  * The repository interface for {@link Role} instances.
  *
  * @author James Ho
  */
-public interface RoleRepository extends JpaRepository<Role, Long> {
+public interface RoleRepository extends NaturalIdRepository<Role, Long> {
 
   public Optional<Role> findByName(String name);
 
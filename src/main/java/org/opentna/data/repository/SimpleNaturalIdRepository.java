@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.repository;
+
+import java.io.Serializable;
+import java.util.Optional;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+
+/**
+ * The base class of every repository, implements {@link NaturalIdRepository} on top of
+ * {@link SimpleJpaRepository}.
+ *
+ * <p>Hibernate resolves a natural ID to the primary key first, then loads the entity by its
+ * primary key, which only pays off when both are answered by the second-level cache. Without
+ * the cache, the entity is queried by its natural ID property instead, in one round trip.
+ *
+ * @author James Ho
+ */
+public class SimpleNaturalIdRepository<T, ID> extends SimpleJpaRepository<T, ID>
+    implements NaturalIdRepository<T, ID> {
+
+  private final EntityManager entityManager;
+
+  private final String naturalIdProperty;
+
+  private final boolean naturalIdCached;
+
+  public SimpleNaturalIdRepository(JpaEntityInformation<T, ?> entityInformation,
+      EntityManager entityManager) {
+    super(entityInformation, entityManager);
+    this.entityManager = entityManager;
+    SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory()
+        .unwrap(SessionFactoryImplementor.class);
+    EntityPersister persister = sessionFactory.getMetamodel()
+        .entityPersister(entityInformation.getJavaType());
+    int[] naturalIdProperties = persister.getNaturalIdentifierProperties();
+    this.naturalIdProperty = naturalIdProperties != null && naturalIdProperties.length == 1
+        ? persister.getPropertyNames()[naturalIdProperties[0]] : null;
+    this.naturalIdCached = naturalIdProperty != null && persister.hasNaturalIdCache()
+        && sessionFactory.getSessionFactoryOptions().isSecondLevelCacheEnabled();
+  }
+
+  @Override
+  public Optional<T> findByNaturalId(Serializable naturalId) {
+    if (naturalIdProperty == null) {
+      throw new UnsupportedOperationException(
+          getDomainClass().getSimpleName() + " has no simple natural ID");
+    }
+    if (naturalIdCached) {
+      return entityManager.unwrap(Session.class).bySimpleNaturalId(getDomainClass())
+          .loadOptional(naturalId);
+    }
+    CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<T> query = builder.createQuery(getDomainClass());
+    Root<T> root = query.from(getDomainClass());
+    query.where(builder.equal(root.get(naturalIdProperty), naturalId));
+    return entityManager.createQuery(query).getResultList().stream().findFirst();
+  }
+
+  @Override
+  public boolean isNaturalIdCached() {
+    return naturalIdCached;
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.opentna.data.model.entity.Timesheet;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * The repository interface for {@link Timesheet} instances.
+ *
+ * @author James Ho
+ */
+public interface TimesheetRepository extends JpaRepository<Timesheet, Long> {
+
+  public List<Timesheet> findByUserIdAndWorkDateBetweenOrderByWorkDate(long userId,
+      LocalDate from, LocalDate to);
+
+  public List<Timesheet> findByWorkDateOrderByUserId(LocalDate workDate);
+
+  @Modifying
+  @Query("delete from Timesheet t where t.workDate between :from and :to")
+  public int deleteByWorkDateBetween(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+}
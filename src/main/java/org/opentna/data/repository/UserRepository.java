@@ -16,17 +16,182 @@
 
 package org.opentna.data.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import org.opentna.data.model.UserSummary;
 import org.opentna.data.model.entity.User;
-import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * The repository interface for {@link User} instances.
  *
  * @author James Ho
  */
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends NaturalIdRepository<User, Long> {
+
+  /**
+   * The constructor expression of {@link UserSummary}, reads the listed columns only.
+   */
+  static final String SUMMARY = "new org.opentna.data.model.UserSummary("
+      + "u.id, u.username, u.mustChangePassword, u.enabled, u.createdAt, u.lastModifiedAt)";
 
   public Optional<User> findByUsername(String username);
 
+  /**
+   * Retrieves the users with an ID greater than the given one, ordered by ID, seeking on the
+   * primary key instead of skipping an offset.
+   *
+   * @param id the exclusive lower bound of the ID
+   * @param pageable the pageable, of the first page only
+   * @return a list of user
+   */
+  @Query("select u from User u where u.id > :id order by u.id")
+  public List<User> findAllAfterId(@Param("id") long id, Pageable pageable);
+
+  /**
+   * Retrieves the users after the given username and ID, ordered by username then ID, seeking on
+   * the unique username index instead of skipping an offset.
+   *
+   * @param username the username of the last user of the previous page
+   * @param id the ID of the last user of the previous page
+   * @param pageable the pageable, of the first page only
+   * @return a list of user
+   */
+  @Query("select u from User u where u.username > :username"
+      + " or (u.username = :username and u.id > :id) order by u.username, u.id")
+  public List<User> findAllAfterUsername(@Param("username") String username, @Param("id") long id,
+      Pageable pageable);
+
+  /**
+   * Retrieves the summaries of all users with the given pageable.
+   *
+   * @param pageable the pageable
+   * @return a page of user summary
+   */
+  @Query(value = "select " + SUMMARY + " from User u", countQuery = "select count(u) from User u")
+  public Page<UserSummary> findAllSummaries(Pageable pageable);
+
+  /**
+   * Retrieves the summaries of the users with an ID greater than the given one, ordered by ID.
+   *
+   * @param id the exclusive lower bound of the ID
+   * @param pageable the pageable, of the first page only
+   * @return a list of user summary
+   */
+  @Query("select " + SUMMARY + " from User u where u.id > :id order by u.id")
+  public List<UserSummary> findSummariesAfterId(@Param("id") long id, Pageable pageable);
+
+  /**
+   * Retrieves the summaries of the users after the given username and ID, ordered by username
+   * then ID.
+   *
+   * @param username the username of the last user of the previous page
+   * @param id the ID of the last user of the previous page
+   * @param pageable the pageable, of the first page only
+   * @return a list of user summary
+   */
+  @Query("select " + SUMMARY + " from User u where u.username > :username"
+      + " or (u.username = :username and u.id > :id) order by u.username, u.id")
+  public List<UserSummary> findSummariesAfterUsername(@Param("username") String username,
+      @Param("id") long id, Pageable pageable);
+
+  /**
+   * Retrieves the ID of the user who owns the given proximity card.
+   *
+   * @param cardId the proximity card ID
+   * @return the user ID
+   */
+  @Query("select u.id from User u join u.proximityCards c where c.id = :cardId")
+  public Optional<Long> findIdByProximityCardId(@Param("cardId") long cardId);
+
+  /**
+   * Retrieves every proximity card ID along with the ID of its owner.
+   *
+   * @return a list of {@code [cardId, userId]}
+   */
+  @Query("select c.id, u.id from User u join u.proximityCards c")
+  public List<Object[]> findAllProximityCardIdAndUserId();
+
+  /**
+   * Retrieves the ID, username, enabled and must change password state of the users with the
+   * given usernames.
+   *
+   * @param usernames the usernames
+   * @return a list of {@code [id, username, enabled, mustChangePassword]}
+   */
+  @Query("select u.id, u.username, u.enabled, u.mustChangePassword from User u"
+      + " where u.username in :usernames")
+  public List<Object[]> findAllIdAndStateByUsernameIn(
+      @Param("usernames") Collection<String> usernames);
+
+  /**
+   * Retrieves the role IDs of the given users.
+   *
+   * @param ids the user IDs
+   * @return a list of {@code [userId, roleId]}
+   */
+  @Query("select u.id, r.id from User u join u.roles r where u.id in :ids")
+  public List<Object[]> findAllRoleIdByIdIn(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Retrieves the proximity card IDs of the given users.
+   *
+   * @param ids the user IDs
+   * @return a list of {@code [userId, cardId]}
+   */
+  @Query("select u.id, c.id from User u join u.proximityCards c where u.id in :ids")
+  public List<Object[]> findAllProximityCardIdByIdIn(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Retrieves the ID and username of every user.
+   *
+   * @return a list of {@code [id, username]}
+   */
+  @Query("select u.id, u.username from User u")
+  public List<Object[]> findAllIdAndUsername();
+
+  /**
+   * Retrieves the ID of every enabled user.
+   *
+   * @return a list of user ID
+   */
+  @Query("select u.id from User u where u.enabled = true")
+  public List<Long> findAllEnabledId();
+
+  /**
+   * Replaces the secret of the given user, if it is still the given one.
+   *
+   * @param id the user ID
+   * @param password the current secret
+   * @param encodedPassword the new secret
+   * @return the number of updated users, 0 if the secret changed meanwhile
+   */
+  @Modifying(clearAutomatically = true, flushAutomatically = true)
+  @Query("update User u set u.password = :encodedPassword"
+      + " where u.id = :id and u.password = :password")
+  public int updatePasswordByIdAndPassword(@Param("id") long id,
+      @Param("password") String password, @Param("encodedPassword") String encodedPassword);
+
+  /**
+   * Updates the enabled state of the given users with a single statement, skipping the users
+   * already in that state.
+   * Flushes the pending changes before and clears the persistence context after, so that the
+   * users loaded earlier in the transaction are not read stale.
+   *
+   * @param ids the user IDs
+   * @param enabled the enabled state
+   * @param modifiedAt the modified time
+   * @return the number of updated users
+   */
+  @Modifying(clearAutomatically = true, flushAutomatically = true)
+  @Query("update User u set u.enabled = :enabled, u.lastModifiedAt = :modifiedAt"
+      + " where u.id in :ids and u.enabled <> :enabled")
+  public int updateEnabledByIdIn(@Param("ids") Collection<Long> ids,
+      @Param("enabled") boolean enabled, @Param("modifiedAt") long modifiedAt);
+
 }
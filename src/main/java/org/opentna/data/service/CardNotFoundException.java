@@ -31,4 +31,8 @@ public class CardNotFoundException extends RuntimeException {
     super(String.format("Could not find card '%s'", serialNo));
   }
 
+  protected CardNotFoundException(String serialNo, boolean writableStackTrace) {
+    super(String.format("Could not find card '%s'", serialNo), null, false, writableStackTrace);
+  }
+
 }
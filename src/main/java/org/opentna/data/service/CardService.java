@@ -16,7 +16,10 @@
 
 package org.opentna.data.service;
 
+import java.util.Collection;
+import java.util.List;
 import javax.validation.Valid;
+import org.opentna.data.model.CardProvisionResult;
 import org.opentna.data.model.entity.ProximityCard;
 import org.springframework.validation.annotation.Validated;
 
@@ -36,6 +39,15 @@ public interface CardService {
    */
   public ProximityCard createProximityCard(@Valid ProximityCard card);
 
+  /**
+   * Creates new proximity cards in JDBC batches, committed per chunk. Invalid cards and duplicate
+   * serial numbers are reported per card instead of failing the others.
+   *
+   * @param cards the proximity card models
+   * @return a list of result, in the given order
+   */
+  public List<CardProvisionResult> createProximityCards(List<ProximityCard> cards);
+
   /**
    * Retrieves proximity card with the given proximity card ID.
    *
@@ -49,9 +61,41 @@ public interface CardService {
    *
    * @param serialNo the serial number
    * @return a proximity card record
+   * @throws CardNotFoundException if the card does not exist, an {@link UnknownCardException}
+   *     if it is rejected by the card index without a database round trip
    */
   public ProximityCard loadProximityCardBySerialNo(String serialNo);
 
+  /**
+   * Retrieves the ID of the user who owns the proximity card with the given serial number,
+   * answered from the card index, without a database round trip for owned and unowned cards
+   * alike. Only a card not indexed yet is read from the database, and indexed.
+   *
+   * @param serialNo the serial number
+   * @return the user ID, or null if the card has no owner
+   * @throws CardNotFoundException if the card does not exist
+   */
+  public Long loadOwnerIdBySerialNo(String serialNo);
+
+  /**
+   * Tells whether the proximity card with the given serial number is authorized, i.e. enabled and
+   * owned by an enabled user. Answered from an in-memory bitmap, without a database round trip.
+   *
+   * @param serialNo the serial number
+   * @return true if the card is authorized, false if it is not or does not exist
+   */
+  public boolean isAuthorized(String serialNo);
+
+  /**
+   * Updates the enabled state of the given proximity cards with set-based updates, instead of
+   * loading and saving each card.
+   *
+   * @param cardIds the proximity card IDs
+   * @param state the enabled state
+   * @return the number of cards whose state changed
+   */
+  public int updateEnabled(Collection<Long> cardIds, boolean state);
+
   /**
    * Partially updates proximity card information and unable to update the serial number.
    *
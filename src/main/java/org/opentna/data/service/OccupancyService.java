@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+import java.util.Collection;
+import org.opentna.data.model.Occupant;
+
+/**
+ * The occupancy service, answers who is on site from memory.
+ *
+ * <p>Taps of a user alternate between in and out. A tap more than {@code max-shift-ms} after the
+ * previous one always starts a new visit, and a user whose last tap is older than that is no
+ * longer on site, so a missed tap out does not keep them on site forever.
+ *
+ * @author James Ho
+ */
+public interface OccupancyService {
+
+  /**
+   * Retrieves the number of users on site.
+   *
+   * @return the headcount
+   */
+  public int countOccupants();
+
+  /**
+   * Retrieves the users on site.
+   *
+   * @return a collection of occupant, in no particular order
+   */
+  public Collection<Occupant> loadOccupants();
+
+  /**
+   * Tells whether the given user is on site.
+   *
+   * @param userId the user ID
+   * @return true if the user is on site
+   */
+  public boolean isPresent(long userId);
+
+}
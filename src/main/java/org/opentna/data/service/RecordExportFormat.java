@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+/**
+ * The formats of an attendance record export.
+ *
+ * @author James Ho
+ */
+public enum RecordExportFormat {
+
+  /**
+   * One JSON object per line.
+   */
+  NDJSON("application/x-ndjson", "ndjson"),
+
+  /**
+   * Comma-separated values with a header line.
+   */
+  CSV("text/csv", "csv");
+
+  private final String contentType;
+
+  private final String extension;
+
+  RecordExportFormat(String contentType, String extension) {
+    this.contentType = contentType;
+    this.extension = extension;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+}
@@ -16,10 +16,15 @@
 
 package org.opentna.data.service;
 
+import java.io.OutputStream;
+import java.time.LocalDate;
 import java.util.Collection;
 import javax.validation.Valid;
+import org.opentna.data.model.AttendanceRow;
+import org.opentna.data.model.KeysetPage;
 import org.opentna.data.model.entity.Attendance;
 import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.Timesheet;
 import org.opentna.data.model.entity.User;
 import org.springframework.validation.annotation.Validated;
 
@@ -39,6 +44,35 @@ public interface RecordService {
    */
   public Attendance createAttendance(@Valid Attendance attendance);
 
+  /**
+   * Creates new attendance records in JDBC batches.
+   *
+   * @param attendances the attendance models
+   * @return a collection of attendance record, in the given order
+   */
+  public Collection<Attendance> createAttendances(@Valid Collection<Attendance> attendances);
+
+  /**
+   * Queues new attendance record for a group commit by the write-behind writer, or creates it
+   * right away when the write-behind mode is disabled.
+   *
+   * @param attendance the attendance model
+   * @throws RecordRejectedException if the queue stays full for longer than the offer timeout
+   */
+  public void submitAttendance(@Valid Attendance attendance);
+
+  /**
+   * Creates new attendance record for a tap of the given card, with the card owner resolved from
+   * the in-memory card index instead of loading the card and the user.
+   *
+   * @param serialNo the serial number of the proximity card
+   * @param loggedAt the time of the tap
+   * @return a attendance record, referencing the card and its owner by ID only
+   * @throws CardNotFoundException if the card does not exist, an {@link UnknownCardException}
+   *     if it is rejected by the card index without a database round trip
+   */
+  public Attendance recordTap(String serialNo, long loggedAt);
+
   /**
    * Retrieves attendance record with the given attendance ID.
    *
@@ -48,19 +82,89 @@ public interface RecordService {
   public Attendance loadAttendanceById(long attendanceId);
 
   /**
-   * Retrieves attendance record with the given active user.
+   * Retrieves attendance record with the given active user, as flat rows.
    *
    * @param user the active user model
-   * @return a collection of attendance record
+   * @return a collection of attendance row, ordered by the logged time
    */
-  public Collection<Attendance> loadAttendanceByUser(@Valid User user);
+  public Collection<AttendanceRow> loadAttendanceByUser(@Valid User user);
 
   /**
-   * Retrieves attendance record with the given proximity card.
+   * Retrieves attendance record with the given proximity card, as flat rows.
    *
    * @param card the proximity card model
-   * @return a collection of attendance record
+   * @return a collection of attendance row, ordered by the logged time
+   */
+  public Collection<AttendanceRow> loadAttendanceByProximityCard(@Valid ProximityCard card);
+
+  /**
+   * Retrieves a page of attendance record of the given user, logged within the given range and
+   * ordered by the logged time.
+   *
+   * @param user the active user model
+   * @param from the inclusive lower bound of the logged time
+   * @param to the exclusive upper bound of the logged time
+   * @param pageToken the token of the page, null for the first page
+   * @param size the page size
+   * @return a page of attendance row
+   */
+  public KeysetPage<AttendanceRow> loadAttendanceByUser(@Valid User user, long from, long to,
+      String pageToken, int size);
+
+  /**
+   * Retrieves a page of attendance record of the given proximity card, logged within the given
+   * range and ordered by the logged time.
+   *
+   * @param card the proximity card model
+   * @param from the inclusive lower bound of the logged time
+   * @param to the exclusive upper bound of the logged time
+   * @param pageToken the token of the page, null for the first page
+   * @param size the page size
+   * @return a page of attendance row
+   */
+  public KeysetPage<AttendanceRow> loadAttendanceByProximityCard(@Valid ProximityCard card,
+      long from, long to, String pageToken, int size);
+
+  /**
+   * Writes every attendance record logged within the given range to the output stream, ordered by
+   * the logged time. Rows are read with a forward-only cursor and written as they arrive, so the
+   * memory used does not depend on the number of records.
+   *
+   * @param from the inclusive lower bound of the logged time
+   * @param to the exclusive upper bound of the logged time
+   * @param format the export format
+   * @param out the output stream, not closed
+   * @return the number of exported records
+   * @throws java.io.UncheckedIOException if writing to the output stream fails
+   */
+  public long exportAttendances(long from, long to, RecordExportFormat format, OutputStream out);
+
+  /**
+   * Retrieves the daily timesheets of the given user.
+   *
+   * @param userId the user ID
+   * @param from the first local date
+   * @param to the last local date, inclusive
+   * @return a collection of timesheet, ordered by date
+   */
+  public Collection<Timesheet> loadTimesheetsByUser(long userId, LocalDate from, LocalDate to);
+
+  /**
+   * Retrieves the daily timesheets of every user for the given date.
+   *
+   * @param workDate the local date
+   * @return a collection of timesheet, ordered by user ID
+   */
+  public Collection<Timesheet> loadTimesheetsByDate(LocalDate workDate);
+
+  /**
+   * Rebuilds the daily timesheets of the given dates from the attendance records, e.g. after a
+   * backfill of records.
+   *
+   * @param from the first local date
+   * @param to the last local date, inclusive
+   * @return the number of rebuilt timesheets
    */
-  public Collection<Attendance> loadAttendanceByProximityCard(@Valid ProximityCard card);
+  public int rebuildTimesheets(LocalDate from, LocalDate to);
 
 }
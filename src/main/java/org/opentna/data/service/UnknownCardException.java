@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+/**
+ * The card not found exception of a serial number rejected by the card index, without a database
+ * round trip. Thrown on the hot path of unknown taps, so it skips the stack trace.
+ *
+ * @author James Ho
+ */
+public class UnknownCardException extends CardNotFoundException {
+
+  public UnknownCardException(String serialNo) {
+    super(serialNo, false);
+  }
+
+}
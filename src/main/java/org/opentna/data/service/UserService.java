@@ -16,7 +16,16 @@
 
 package org.opentna.data.service;
 
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
 import javax.validation.Valid;
+import org.opentna.data.model.CountMode;
+import org.opentna.data.model.KeysetPage;
+import org.opentna.data.model.UserImportReport;
+import org.opentna.data.model.UserPatch;
+import org.opentna.data.model.UserSummary;
+import org.opentna.data.model.UsernameMatch;
 import org.opentna.data.model.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -55,13 +64,78 @@ public interface UserService {
   public User loadUserByUsername(String username);
 
   /**
-   * Retrieves all user with the given pageable.
+   * Retrieves all user with the given pageable. Counts on every page and skips an offset, which
+   * gets slower with every page, so only meant for small tables. See
+   * {@link #loadAllUserById(String, int, CountMode)} for large listings.
    *
    * @param pageable the pageable
    * @return a page of a list of user
    */
   public Page<User> loadAllUserByPaginated(Pageable pageable);
 
+  /**
+   * Retrieves a page of all user ordered by ID, seeking from the page token instead of an offset.
+   *
+   * @param pageToken the token of the page, null for the first page
+   * @param size the page size
+   * @param countMode whether and how to count the total number of users
+   * @return a page of user
+   */
+  public KeysetPage<User> loadAllUserById(String pageToken, int size, CountMode countMode);
+
+  /**
+   * Retrieves a page of all user ordered by username, seeking from the page token instead of an
+   * offset.
+   *
+   * @param pageToken the token of the page, null for the first page
+   * @param size the page size
+   * @param countMode whether and how to count the total number of users
+   * @return a page of user
+   */
+  public KeysetPage<User> loadAllUserByUsername(String pageToken, int size,
+      CountMode countMode);
+
+  /**
+   * Retrieves the summaries of all user with the given pageable, reading only the listed columns.
+   *
+   * @param pageable the pageable
+   * @return a page of user summary
+   */
+  public Page<UserSummary> loadAllUserSummaryByPaginated(Pageable pageable);
+
+  /**
+   * Retrieves a page of the summaries of all user ordered by ID, reading only the listed columns.
+   *
+   * @param pageToken the token of the page, null for the first page
+   * @param size the page size
+   * @param countMode whether and how to count the total number of users
+   * @return a page of user summary
+   */
+  public KeysetPage<UserSummary> loadAllUserSummaryById(String pageToken, int size,
+      CountMode countMode);
+
+  /**
+   * Retrieves a page of the summaries of all user ordered by username, reading only the listed
+   * columns.
+   *
+   * @param pageToken the token of the page, null for the first page
+   * @param size the page size
+   * @param countMode whether and how to count the total number of users
+   * @return a page of user summary
+   */
+  public KeysetPage<UserSummary> loadAllUserSummaryByUsername(String pageToken, int size,
+      CountMode countMode);
+
+  /**
+   * Retrieves the first users whose username starts with the given prefix, ignoring case, for
+   * typeahead. Answered from an in-memory index, without a database round trip.
+   *
+   * @param prefix the username prefix
+   * @param limit the maximum number of users
+   * @return a list of matching user, ordered by username
+   */
+  public List<UsernameMatch> searchByUsernamePrefix(String prefix, int limit);
+
   /**
    * Updates a user.
    *
@@ -70,6 +144,18 @@ public interface UserService {
    */
   public User updateUser(@Valid User user);
 
+  /**
+   * Partially updates a user, applying only the fields set on the patch. The update statement
+   * covers the changed columns only, and the roles and proximity cards are left untouched unless
+   * set on the patch.
+   *
+   * @param userId the user ID
+   * @param patch the partial update
+   * @return a user record
+   * @throws UserNotFoundException if the user does not exist
+   */
+  public User patchUser(long userId, @Valid UserPatch patch);
+
   /**
    * Change password.
    *
@@ -78,6 +164,19 @@ public interface UserService {
    */
   public void changePassword(long userId, String password);
 
+  /**
+   * Verifies the password of an enabled user. The hash compare runs on the password hasher, not on
+   * the calling thread, and a successful verification is cached for a short while, until the user
+   * is updated. An unknown or disabled user costs a hash compare all the same. A plaintext secret
+   * saved before passwords were hashed still verifies, and is replaced with its hash on success.
+   *
+   * @param username the username
+   * @param password the raw password
+   * @return true if the user exists, is enabled and the password matches
+   * @throws HashingRejectedException if the password hasher is saturated
+   */
+  public boolean verifyPassword(String username, String password);
+
   /**
    * Updates the must change password state.
    *
@@ -94,4 +193,26 @@ public interface UserService {
    */
   public void updateEnabled(long userId, boolean state);
 
+  /**
+   * Updates the enabled state of the given users with set-based updates, instead of loading and
+   * saving each user.
+   *
+   * @param userIds the user IDs
+   * @param state the enabled state
+   * @return the number of users whose state changed
+   */
+  public int updateEnabled(Collection<Long> userIds, boolean state);
+
+  /**
+   * Imports users from a CSV roster, creating the new users and updating the existing ones by
+   * username. The file is read incrementally and written in JDBC batches committed per chunk, so
+   * a failed row is reported without failing the others.
+   *
+   * @param in the UTF-8 encoded CSV, with a header naming the columns
+   * @param disableMissing whether to disable the enabled users left out of the roster, skipped if
+   *     any row failed
+   * @return the import report
+   */
+  public UserImportReport importUsers(InputStream in, boolean disableMissing);
+
 }
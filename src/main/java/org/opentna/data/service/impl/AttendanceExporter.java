@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.service.RecordExportFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams attendance records straight from a forward-only cursor to an output stream, one row at
+ * a time and without any entity.
+ *
+ * <p>The driver reads the whole result by default on MySQL, so the export statement alone is put
+ * in streaming mode there, which fetches rows as they are read instead of {@code fetch-size} at a
+ * time. Other databases use {@code fetch-size}.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class AttendanceExporter {
+
+  private static final String EXPORT_SQL =
+      "SELECT a.id, a.user_id, c.serial_no, a.logged_unix, a.created_unix"
+          + " FROM attendance_records a JOIN proximity_cards c ON c.id = a.card_id"
+          + " WHERE a.logged_unix >= ? AND a.logged_unix < ?"
+          + " ORDER BY a.logged_unix, a.id";
+
+  private static final String MYSQL = "MySQL";
+
+  private static final String[] COLUMNS = {"id", "user_id", "serial_no", "logged", "created"};
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Value("${opentna.records.export.fetch-size:1000}")
+  private int fetchSize;
+
+  private final JsonFactory jsonFactory = new JsonFactory()
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  /**
+   * Writes the attendance records logged within the given range.
+   *
+   * @param from the inclusive lower bound of the logged time
+   * @param to the exclusive upper bound of the logged time
+   * @param format the export format
+   * @param out the output stream, flushed but not closed
+   * @return the number of exported records
+   */
+  public long export(long from, long to, RecordExportFormat format, OutputStream out) {
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      RowWriter rowWriter = format == RecordExportFormat.CSV
+          ? new CsvRowWriter(writer) : new JsonRowWriter(jsonFactory.createGenerator(writer));
+      long[] count = {0L};
+      jdbcTemplate.query(connection -> {
+        PreparedStatement statement = connection.prepareStatement(EXPORT_SQL,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(isMySql(connection) ? Integer.MIN_VALUE : fetchSize);
+        statement.setLong(1, from);
+        statement.setLong(2, to);
+        return statement;
+      }, (RowCallbackHandler) rs -> {
+        try {
+          rowWriter.write(rs);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        count[0]++;
+      });
+      rowWriter.flush();
+      log.debug(String.format("from=%s, to=%s, format=%s, count=%s", from, to, format, count[0]));
+      return count[0];
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean isMySql(Connection connection) throws SQLException {
+    return MYSQL.equals(connection.getMetaData().getDatabaseProductName());
+  }
+
+  private interface RowWriter {
+
+    void write(ResultSet rs) throws SQLException, IOException;
+
+    void flush() throws IOException;
+
+  }
+
+  private static class JsonRowWriter implements RowWriter {
+
+    private final JsonGenerator generator;
+
+    JsonRowWriter(JsonGenerator generator) {
+      // one object per line, the default root separator would start every other line with a space
+      this.generator = generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void write(ResultSet rs) throws SQLException, IOException {
+      generator.writeStartObject();
+      generator.writeNumberField(COLUMNS[0], rs.getLong(1));
+      long userId = rs.getLong(2);
+      if (!rs.wasNull()) {
+        generator.writeNumberField(COLUMNS[1], userId);
+      }
+      generator.writeStringField(COLUMNS[2], rs.getString(3));
+      generator.writeNumberField(COLUMNS[3], rs.getLong(4));
+      generator.writeNumberField(COLUMNS[4], rs.getLong(5));
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+      generator.flush();
+    }
+
+  }
+
+  private static class CsvRowWriter implements RowWriter {
+
+    private final Writer writer;
+
+    CsvRowWriter(Writer writer) throws IOException {
+      this.writer = writer;
+      writer.write(String.join(",", COLUMNS));
+      writer.write("\r\n");
+    }
+
+    @Override
+    public void write(ResultSet rs) throws SQLException, IOException {
+      writer.write(Long.toString(rs.getLong(1)));
+      writer.write(',');
+      long userId = rs.getLong(2);
+      if (!rs.wasNull()) {
+        writer.write(Long.toString(userId));
+      }
+      writer.write(',');
+      writer.write(quote(rs.getString(3)));
+      writer.write(',');
+      writer.write(Long.toString(rs.getLong(4)));
+      writer.write(',');
+      writer.write(Long.toString(rs.getLong(5)));
+      writer.write("\r\n");
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writer.flush();
+    }
+
+    private static String quote(String value) {
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+          && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+        return value;
+      }
+      return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+  }
+
+}
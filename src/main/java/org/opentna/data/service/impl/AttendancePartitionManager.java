@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the monthly RANGE partitions of {@code attendance_records} on {@code logged_unix}.
+ *
+ * <p>Creates the partitions of the upcoming months and drops, or archives to a table of their
+ * own, the partitions past the retention. The table has to be partitioned once beforehand, see
+ * {@code db/mysql/attendance_records_partitioning.sql}. On other databases, or on a table that
+ * is not partitioned, expired records are deleted instead, only when archiving is disabled.
+ *
+ * <p>An archive table left behind by an interrupted run is reused, as long as it and the expired
+ * partition are not both holding records.
+ *
+ * @author James Ho
+ */
+@Component
+@ConditionalOnProperty(prefix = "opentna.records.partitioning", name = "enabled",
+    havingValue = "true")
+@Slf4j
+public class AttendancePartitionManager {
+
+  private static final String TABLE = "attendance_records";
+
+  private static final DateTimeFormatter PARTITION_NAME =
+      DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Value("${opentna.records.partitioning.months-ahead:3}")
+  private int monthsAhead;
+
+  @Value("${opentna.records.partitioning.retention-months:24}")
+  private int retentionMonths;
+
+  @Value("${opentna.records.partitioning.archive:true}")
+  private boolean archive;
+
+  @Value("${opentna.records.partitioning.delete-chunk-size:10000}")
+  private int deleteChunkSize;
+
+  @Scheduled(cron = "${opentna.records.partitioning.cron:0 30 2 * * *}")
+  public void maintain() {
+    YearMonth current = YearMonth.now(ZoneOffset.UTC);
+    YearMonth oldest = current.minusMonths(retentionMonths);
+    List<String> partitions = isMySql() ? loadPartitions(TABLE) : new ArrayList<>();
+    if (partitions.isEmpty()) {
+      if (archive) {
+        log.warn(String.format("%s is not partitioned, refusing to delete the records logged"
+            + " before %s while archiving is enabled", TABLE, oldest));
+        return;
+      }
+      purge(oldest);
+      return;
+    }
+    createPartitions(partitions, current.plusMonths(monthsAhead));
+    dropPartitions(partitions, oldest);
+  }
+
+  private boolean isMySql() {
+    return jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+        connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql"));
+  }
+
+  private List<String> loadPartitions(String table) {
+    return jdbcTemplate.queryForList("SELECT PARTITION_NAME FROM information_schema.PARTITIONS"
+        + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL"
+        + " ORDER BY PARTITION_ORDINAL_POSITION", String.class, table);
+  }
+
+  private boolean exists(String table) {
+    return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.TABLES"
+        + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?", Integer.class, table) > 0;
+  }
+
+  private boolean hasRecords(String source) {
+    return !jdbcTemplate.queryForList(String.format("SELECT 1 FROM %s LIMIT 1", source))
+        .isEmpty();
+  }
+
+  /**
+   * Splits the catch-all {@code pmax} partition into the missing months up to the given one.
+   */
+  private void createPartitions(List<String> partitions, YearMonth last) {
+    YearMonth latest = null;
+    for (String partition : partitions) {
+      YearMonth month = toMonth(partition);
+      if (month != null && (latest == null || month.isAfter(latest))) {
+        latest = month;
+      }
+    }
+    YearMonth month = latest == null ? YearMonth.now(ZoneOffset.UTC) : latest.plusMonths(1);
+    StringBuilder definitions = new StringBuilder();
+    for (; !month.isAfter(last); month = month.plusMonths(1)) {
+      definitions.append(String.format("PARTITION %s VALUES LESS THAN (%s), ",
+          PARTITION_NAME.format(month), toEpochMilli(month.plusMonths(1))));
+    }
+    if (definitions.length() == 0) {
+      return;
+    }
+    jdbcTemplate.execute(String.format("ALTER TABLE %s REORGANIZE PARTITION pmax INTO"
+        + " (%sPARTITION pmax VALUES LESS THAN MAXVALUE)", TABLE, definitions));
+    log.info(String.format("Created partitions up to %s", PARTITION_NAME.format(last)));
+  }
+
+  /**
+   * Drops the partitions older than the given month, after exchanging them with a table named
+   * after the partition when archiving.
+   */
+  private void dropPartitions(List<String> partitions, YearMonth oldest) {
+    for (String partition : partitions) {
+      YearMonth month = toMonth(partition);
+      if (month == null || !month.isBefore(oldest)) {
+        continue;
+      }
+      if (archive && !archivePartition(partition)) {
+        continue;
+      }
+      jdbcTemplate.execute(String.format("ALTER TABLE %s DROP PARTITION %s", TABLE, partition));
+      log.info(String.format("Dropped partition %s", partition));
+    }
+  }
+
+  /**
+   * Exchanges the partition with an empty table named after it, unless the partition is empty.
+   *
+   * @return false if the partition cannot be archived and must be kept
+   */
+  private boolean archivePartition(String partition) {
+    String archiveTable = TABLE + "_" + partition;
+    boolean existed = exists(archiveTable);
+    if (!existed) {
+      jdbcTemplate.execute(String.format("CREATE TABLE %s LIKE %s", archiveTable, TABLE));
+    }
+    if (!loadPartitions(archiveTable).isEmpty()) {
+      jdbcTemplate.execute(String.format("ALTER TABLE %s REMOVE PARTITIONING", archiveTable));
+    }
+    if (!hasRecords(String.format("%s PARTITION (%s)", TABLE, partition))) {
+      // already exchanged by an interrupted run
+      return true;
+    }
+    if (existed && hasRecords(archiveTable)) {
+      log.warn(String.format("Both partition %s and %s hold records, keeping the partition",
+          partition, archiveTable));
+      return false;
+    }
+    jdbcTemplate.execute(String.format("ALTER TABLE %s EXCHANGE PARTITION %s WITH TABLE %s",
+        TABLE, partition, archiveTable));
+    log.info(String.format("Archived partition %s to %s", partition, archiveTable));
+    return true;
+  }
+
+  /**
+   * Deletes the records older than the given month in chunks, for tables that are not
+   * partitioned.
+   */
+  private void purge(YearMonth oldest) {
+    long before = toEpochMilli(oldest);
+    long deleted = 0;
+    int count;
+    do {
+      count = jdbcTemplate.update(String.format("DELETE FROM %s WHERE logged_unix < ? LIMIT %s",
+          TABLE, deleteChunkSize), before);
+      deleted += count;
+    } while (count == deleteChunkSize);
+    log.info(String.format("Deleted %s records logged before %s", deleted, oldest));
+  }
+
+  private static YearMonth toMonth(String partition) {
+    if (!partition.matches("p\\d{6}")) {
+      return null;
+    }
+    return YearMonth.parse(partition, PARTITION_NAME);
+  }
+
+  private static long toEpochMilli(YearMonth month) {
+    return month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.entity.Attendance;
+import org.opentna.data.service.RecordRejectedException;
+import org.opentna.data.service.RecordService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * The write-behind writer of attendance records.
+ *
+ * <p>Accepted records are kept in a bounded queue and drained by a single thread, which commits
+ * up to {@code batch-size} records per transaction and waits at most {@code linger-ms} for a
+ * batch to fill up. The queue is drained before the application context stops.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class AttendanceWriter implements SmartLifecycle {
+
+  @Autowired
+  @Lazy
+  private RecordService recordService;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  @Value("${opentna.records.write-behind.enabled:false}")
+  private boolean enabled;
+
+  @Value("${opentna.records.write-behind.queue-capacity:10000}")
+  private int queueCapacity;
+
+  @Value("${opentna.records.write-behind.batch-size:200}")
+  private int batchSize;
+
+  @Value("${opentna.records.write-behind.linger-ms:20}")
+  private long lingerMillis;
+
+  @Value("${opentna.records.write-behind.offer-timeout-ms:100}")
+  private long offerTimeoutMillis;
+
+  @Value("${opentna.records.write-behind.shutdown-timeout-ms:30000}")
+  private long shutdownTimeoutMillis;
+
+  private BlockingQueue<Attendance> queue;
+
+  private Timer commitTimer;
+
+  private Counter rejectedCounter;
+
+  private Counter failedCounter;
+
+  private volatile boolean running;
+
+  private Thread worker;
+
+  @PostConstruct
+  public void initialize() {
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    Gauge.builder("opentna.records.queue.size", queue, Collection::size)
+        .description("The number of attendance records waiting for a group commit")
+        .register(meterRegistry);
+    commitTimer = Timer.builder("opentna.records.queue.commit")
+        .description("The latency of a group commit")
+        .register(meterRegistry);
+    rejectedCounter = Counter.builder("opentna.records.queue.rejected")
+        .description("The number of attendance records rejected because the queue was full")
+        .register(meterRegistry);
+    failedCounter = Counter.builder("opentna.records.queue.failed")
+        .description("The number of queued attendance records that could not be saved")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Queues the attendance record, or creates it right away when the write-behind mode is
+   * disabled.
+   *
+   * @param attendance the attendance model
+   */
+  public void submit(Attendance attendance) {
+    if (!enabled) {
+      recordService.createAttendance(attendance);
+      return;
+    }
+    try {
+      if (running && queue.offer(attendance, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    rejectedCounter.increment();
+    throw new RecordRejectedException(queueCapacity);
+  }
+
+  @Override
+  public void start() {
+    if (!enabled || running) {
+      return;
+    }
+    running = true;
+    worker = new Thread(this::drain, "attendance-writer");
+    worker.start();
+    log.info(String.format("Started, batchSize=%s, lingerMs=%s", batchSize, lingerMillis));
+  }
+
+  @Override
+  public void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      worker.join(shutdownTimeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!queue.isEmpty()) {
+      log.warn(String.format("Stopped with %s records left in the queue", queue.size()));
+    } else {
+      log.info("Stopped");
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    // starts last and stops first, so the queue is drained while everything else is still up
+    return Integer.MAX_VALUE;
+  }
+
+  private void drain() {
+    List<Attendance> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        Attendance head = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (head == null) {
+          continue;
+        }
+        batch.add(head);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || remaining <= 0) {
+            break;
+          }
+          Attendance next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        log.warn("Interrupted");
+      }
+      if (!batch.isEmpty()) {
+        commit(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void commit(List<Attendance> batch) {
+    long start = System.nanoTime();
+    try {
+      recordService.createAttendances(batch);
+    } catch (RuntimeException e) {
+      // one bad record rolls back the whole group, so retries them one at a time
+      log.warn(String.format("Group commit failed, size=%s: %s", batch.size(), e.getMessage()));
+      for (Attendance attendance : batch) {
+        try {
+          recordService.createAttendance(attendance);
+        } catch (RuntimeException ex) {
+          failedCounter.increment();
+          log.error(String.format("Could not save %s: %s", attendance, ex.getMessage()));
+        }
+      }
+    } finally {
+      commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.repository.ProximityCardRepository;
+import org.opentna.data.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * An in-memory index of proximity cards, from serial number to card ID and from card ID to the
+ * ID of its owner, along with a bitmap of the authorized cards, enabled and owned by an enabled
+ * user.
+ *
+ * <p>Loaded at startup and kept in sync by the card and user services once their writes commit.
+ * The writes of other nodes, created, disabled or moved cards and created or disabled users, are
+ * picked up by a periodic refresh, which reloads the whole index and replaces it entry by entry.
+ * It reads every card rather than those past the greatest known ID, as IDs are allocated before
+ * their transactions commit and another node may commit a lower one later. A refresh that
+ * overlaps a local write is dropped, so that it never undoes a newer write, and left to the next.
+ *
+ * <p>As it holds every known serial number, the index also serves as an exact negative filter:
+ * unknown serial numbers are rejected without a database round trip. A card is known once the
+ * transaction that creates it commits. Hex serial numbers are indexed upper-cased, so that they
+ * match regardless of case, as in the database.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class CardIndex {
+
+  @Autowired
+  private ProximityCardRepository proximityCardRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  @Value("${opentna.cards.reject-unknown:true}")
+  private boolean rejectUnknown;
+
+  private final ConcurrentMap<String, Long> cardIds = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Long, Long> ownerIds = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Long, Set<Long>> ownedCardIds = new ConcurrentHashMap<>();
+
+  private final ConcurrentBitSet enabledCards = new ConcurrentBitSet();
+
+  private final ConcurrentBitSet enabledUsers = new ConcurrentBitSet();
+
+  private final ConcurrentBitSet authorizedCards = new ConcurrentBitSet();
+
+  /**
+   * Incremented by every local write, to detect the writes overlapping a refresh.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  private Counter rejectedCounter;
+
+  @PostConstruct
+  public void load() {
+    rejectedCounter = Counter.builder("opentna.cards.unknown.rejected")
+        .description("The number of unknown serial numbers rejected without a database round trip")
+        .register(meterRegistry);
+    refresh();
+    log.info(String.format("cards=%s, owned=%s", cardIds.size(), ownerIds.size()));
+  }
+
+  /**
+   * Reloads the enabled users, the cards and their owners, e.g. as written by another node.
+   */
+  @Scheduled(fixedDelayString = "${opentna.cards.refresh-ms:30000}")
+  public void refresh() {
+    long started = generation.get();
+    List<Long> userIds = userRepository.findAllEnabledId();
+    List<Object[]> cards = proximityCardRepository.findAllIdSerialNoAndEnabled();
+    List<Object[]> owners = userRepository.findAllProximityCardIdAndUserId();
+    synchronized (this) {
+      if (generation.get() != started) {
+        log.debug("Written while refreshing, left to the next refresh");
+        return;
+      }
+      replace(userIds, cards, owners);
+    }
+    log.debug(String.format("Refreshed, cards=%s, owned=%s", cards.size(), owners.size()));
+  }
+
+  /**
+   * Tells whether the given serial number should be rejected as unknown, without a database round
+   * trip.
+   *
+   * @param serialNo the serial number
+   * @return true if rejecting unknown serial numbers is enabled and the card is not indexed
+   */
+  public boolean rejects(String serialNo) {
+    if (!rejectUnknown || cardIds.containsKey(ProximityCard.normalizeSerialNo(serialNo))) {
+      return false;
+    }
+    rejectedCounter.increment();
+    return true;
+  }
+
+  /**
+   * Tells whether the card with the given serial number is authorized, i.e. enabled and owned by
+   * an enabled user. Allocates nothing and never touches the database.
+   *
+   * @param serialNo the serial number
+   * @return true if the card is authorized
+   */
+  public boolean isAuthorized(String serialNo) {
+    Long cardId = cardIds.get(ProximityCard.normalizeSerialNo(serialNo));
+    return cardId != null && authorizedCards.get(cardId);
+  }
+
+  /**
+   * Retrieves the card ID of the given serial number.
+   *
+   * @param serialNo the serial number
+   * @return the proximity card ID, or null if the card is not indexed
+   */
+  public Long findCardId(String serialNo) {
+    return cardIds.get(ProximityCard.normalizeSerialNo(serialNo));
+  }
+
+  /**
+   * Retrieves the owner of the given card.
+   *
+   * @param cardId the proximity card ID
+   * @return the user ID, or null if the card has no known owner
+   */
+  public Long findOwnerId(long cardId) {
+    return ownerIds.get(cardId);
+  }
+
+  /**
+   * Indexes a proximity card.
+   *
+   * @param cardId the proximity card ID
+   * @param serialNo the serial number
+   * @param enabled the enabled state of the card
+   */
+  public synchronized void putCard(long cardId, String serialNo, boolean enabled) {
+    generation.incrementAndGet();
+    cardIds.put(ProximityCard.normalizeSerialNo(serialNo), cardId);
+    enabledCards.set(cardId, enabled);
+    authorize(cardId);
+  }
+
+  /**
+   * Indexes the owner of a proximity card.
+   *
+   * @param cardId the proximity card ID
+   * @param userId the user ID
+   */
+  public synchronized void putOwner(long cardId, long userId) {
+    generation.incrementAndGet();
+    Long previous = ownerIds.put(cardId, userId);
+    if (previous != null && previous != userId) {
+      ownedCardIds.getOrDefault(previous, Collections.emptySet()).remove(cardId);
+    }
+    ownedCardIds.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(cardId);
+    authorize(cardId);
+  }
+
+  /**
+   * Replaces the cards owned by the given user.
+   *
+   * @param userId the user ID
+   * @param cardIds the IDs of all cards the user owns
+   */
+  public synchronized void replaceOwnedCards(long userId, Collection<Long> cardIds) {
+    generation.incrementAndGet();
+    Set<Long> previous = ownedCardIds.remove(userId);
+    if (previous != null) {
+      for (Long cardId : previous) {
+        ownerIds.remove(cardId, userId);
+        authorize(cardId);
+      }
+    }
+    for (Long cardId : cardIds) {
+      putOwner(cardId, userId);
+    }
+  }
+
+  /**
+   * Updates the enabled state of a proximity card.
+   *
+   * @param cardId the proximity card ID
+   * @param enabled the enabled state
+   */
+  public synchronized void updateCardEnabled(long cardId, boolean enabled) {
+    generation.incrementAndGet();
+    enabledCards.set(cardId, enabled);
+    authorize(cardId);
+  }
+
+  /**
+   * Updates the enabled state of a user, and with it the authorization of the cards they own.
+   *
+   * @param userId the user ID
+   * @param enabled the enabled state
+   */
+  public synchronized void updateUserEnabled(long userId, boolean enabled) {
+    generation.incrementAndGet();
+    enabledUsers.set(userId, enabled);
+    for (Long cardId : ownedCardIds.getOrDefault(userId, Collections.emptySet())) {
+      authorize(cardId);
+    }
+  }
+
+  private void replace(List<Long> userIds, List<Object[]> cards, List<Object[]> owners) {
+    Set<String> serialNos = new HashSet<>();
+    List<Long> enabledCardIds = new ArrayList<>();
+    for (Object[] row : cards) {
+      String serialNo = ProximityCard.normalizeSerialNo((String) row[1]);
+      cardIds.put(serialNo, (Long) row[0]);
+      serialNos.add(serialNo);
+      if ((Boolean) row[2]) {
+        enabledCardIds.add((Long) row[0]);
+      }
+    }
+    cardIds.keySet().retainAll(serialNos);
+    Map<Long, Long> owned = new HashMap<>();
+    Map<Long, Set<Long>> ownedByUser = new HashMap<>();
+    for (Object[] row : owners) {
+      owned.put((Long) row[0], (Long) row[1]);
+      ownedByUser.computeIfAbsent((Long) row[1], key -> ConcurrentHashMap.newKeySet())
+          .add((Long) row[0]);
+    }
+    ownerIds.putAll(owned);
+    ownerIds.keySet().retainAll(owned.keySet());
+    ownedCardIds.putAll(ownedByUser);
+    ownedCardIds.keySet().retainAll(ownedByUser.keySet());
+    enabledUsers.replace(userIds);
+    enabledCards.replace(enabledCardIds);
+    List<Long> authorizedCardIds = new ArrayList<>();
+    for (Long cardId : enabledCardIds) {
+      Long ownerId = owned.get(cardId);
+      if (ownerId != null && enabledUsers.get(ownerId)) {
+        authorizedCardIds.add(cardId);
+      }
+    }
+    authorizedCards.replace(authorizedCardIds);
+  }
+
+  private void authorize(long cardId) {
+    Long ownerId = ownerIds.get(cardId);
+    authorizedCards.set(cardId,
+        enabledCards.get(cardId) && ownerId != null && enabledUsers.get(ownerId));
+  }
+
+}
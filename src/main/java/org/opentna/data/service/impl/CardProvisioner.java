@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.CardProvisionResult;
+import org.opentna.data.model.CardProvisionResult.Status;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.repository.ProximityCardRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Creates proximity cards in bulk, with JDBC batch inserts committed per chunk.
+ *
+ * <p>Cards are validated and checked for duplicates in memory, then against the database per
+ * chunk. A chunk failing on a concurrent insert of the same serial number is rolled back and
+ * retried one card at a time, so one conflict never fails the other cards.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class CardProvisioner {
+
+  private static final String INSERT_SQL = "INSERT INTO proximity_cards"
+      + " (serial_no, serial_key, description, is_active, created_unix) VALUES (?, ?, ?, ?, ?)";
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private ProximityCardRepository proximityCardRepository;
+
+  @Autowired
+  private CardIndex cardIndex;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${opentna.cards.provisioning.chunk-size:500}")
+  private int chunkSize;
+
+  // not injected, as test slices leave out the validator of the application context
+  private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+  /**
+   * Creates the given proximity cards, must not be called within a transaction.
+   *
+   * @param cards the proximity card models
+   * @return a list of result, in the given order
+   */
+  public List<CardProvisionResult> create(List<ProximityCard> cards) {
+    CardProvisionResult[] results = new CardProvisionResult[cards.size()];
+    Set<String> serialNos = new HashSet<>();
+    List<Integer> chunk = new ArrayList<>(chunkSize);
+    for (int i = 0; i < cards.size(); i++) {
+      ProximityCard card = cards.get(i);
+      Set<ConstraintViolation<ProximityCard>> violations = validator.validate(card);
+      if (!violations.isEmpty()) {
+        results[i] = new CardProvisionResult(card.getSerialNo(), Status.INVALID, null,
+            violations.stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .collect(Collectors.joining(", ")));
+      } else if (!serialNos.add(ProximityCard.normalizeSerialNo(card.getSerialNo()))) {
+        results[i] = new CardProvisionResult(card.getSerialNo(), Status.DUPLICATE, null,
+            "Duplicate serial number in the request");
+      } else {
+        chunk.add(i);
+        if (chunk.size() == chunkSize) {
+          createChunk(cards, chunk, results);
+          chunk.clear();
+        }
+      }
+    }
+    if (!chunk.isEmpty()) {
+      createChunk(cards, chunk, results);
+    }
+    return new ArrayList<>(Arrays.asList(results));
+  }
+
+  private void createChunk(List<ProximityCard> cards, List<Integer> chunk,
+      CardProvisionResult[] results) {
+    long createdAt = System.currentTimeMillis();
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    Map<Integer, CardProvisionResult> chunkResults;
+    try {
+      chunkResults = transactionTemplate.execute(status -> insert(cards, chunk, createdAt));
+    } catch (DataIntegrityViolationException e) {
+      log.warn(String.format("Batch failed, size=%s: %s", chunk.size(), e.getMessage()));
+      chunkResults = new HashMap<>();
+      for (Integer index : chunk) {
+        List<Integer> single = new ArrayList<>(1);
+        single.add(index);
+        try {
+          chunkResults.putAll(transactionTemplate.execute(status ->
+              insert(cards, single, createdAt)));
+        } catch (DuplicateKeyException ex) {
+          chunkResults.put(index, new CardProvisionResult(cards.get(index).getSerialNo(),
+              Status.DUPLICATE, null, "Serial number already exists"));
+        } catch (DataIntegrityViolationException ex) {
+          chunkResults.put(index, new CardProvisionResult(cards.get(index).getSerialNo(),
+              Status.INVALID, null, ex.getMostSpecificCause().getMessage()));
+        }
+      }
+    }
+    chunkResults.forEach((index, result) -> {
+      results[index] = result;
+      if (result.getStatus() == Status.CREATED) {
+        cardIndex.putCard(result.getId(), result.getSerialNo(), cards.get(index).isEnabled());
+      }
+    });
+  }
+
+  private Map<Integer, CardProvisionResult> insert(List<ProximityCard> cards,
+      List<Integer> chunk, long createdAt) {
+    Map<Integer, CardProvisionResult> results = new HashMap<>();
+    Set<String> existing = new HashSet<>();
+    for (Object[] row : proximityCardRepository.findAllIdAndSerialNoBySerialNoIn(
+        serialNos(cards, chunk))) {
+      existing.add(ProximityCard.normalizeSerialNo((String) row[1]));
+    }
+    List<Integer> inserts = new ArrayList<>(chunk.size());
+    List<Object[]> args = new ArrayList<>(chunk.size());
+    for (Integer index : chunk) {
+      ProximityCard card = cards.get(index);
+      if (existing.contains(ProximityCard.normalizeSerialNo(card.getSerialNo()))) {
+        results.put(index, new CardProvisionResult(card.getSerialNo(), Status.DUPLICATE, null,
+            "Serial number already exists"));
+      } else {
+        inserts.add(index);
+        args.add(new Object[] {card.getSerialNo(), ProximityCard.toSerialKey(card.getSerialNo()),
+            card.getDescription(), card.isEnabled(), createdAt});
+      }
+    }
+    if (inserts.isEmpty()) {
+      return results;
+    }
+    jdbcTemplate.batchUpdate(INSERT_SQL, args);
+    // batched generated keys are not reliable across drivers, reads them back instead
+    Map<String, Long> ids = new HashMap<>();
+    for (Object[] row : proximityCardRepository.findAllIdAndSerialNoBySerialNoIn(
+        serialNos(cards, inserts))) {
+      ids.put(ProximityCard.normalizeSerialNo((String) row[1]), (Long) row[0]);
+    }
+    for (Integer index : inserts) {
+      String serialNo = cards.get(index).getSerialNo();
+      results.put(index, new CardProvisionResult(serialNo, Status.CREATED,
+          ids.get(ProximityCard.normalizeSerialNo(serialNo)), null));
+    }
+    log.debug(String.format("Created, size=%s", inserts.size()));
+    return results;
+  }
+
+  private static Collection<String> serialNos(List<ProximityCard> cards, List<Integer> chunk) {
+    List<String> serialNos = new ArrayList<>(chunk.size());
+    for (Integer index : chunk) {
+      serialNos.add(cards.get(index).getSerialNo());
+    }
+    return serialNos;
+  }
+
+}
@@ -16,14 +16,25 @@
 
 package org.opentna.data.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.CardProvisionResult;
 import org.opentna.data.model.entity.ProximityCard;
 import org.opentna.data.repository.ProximityCardRepository;
+import org.opentna.data.repository.UserRepository;
 import org.opentna.data.service.CardNotFoundException;
 import org.opentna.data.service.CardService;
+import org.opentna.data.service.UnknownCardException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,6 +42,11 @@ import org.springframework.transaction.annotation.Transactional;
 /**
  * An implementation of the card service.
  *
+ * <p>Card lookups are cached by ID and by serial number, bounded and expired as configured by
+ * {@code spring.cache.caffeine.spec}. Writes evict the cached card once they commit, so that a
+ * rolled back write never shows in the cache. The cache holds detached copies and every lookup
+ * returns a copy of its own, so that a caller modifying a card never modifies the cached one.
+ *
  * @author James Ho
  */
 @Service
@@ -38,9 +54,33 @@ import org.springframework.transaction.annotation.Transactional;
 @Slf4j
 public class CardServiceImpl implements CardService {
 
+  static final String CARDS_BY_ID = "proximityCardsById";
+
+  static final String CARDS_BY_SERIAL_NO = "proximityCardsBySerialNo";
+
+  /**
+   * The maximum number of IDs in the IN list of a bulk update.
+   */
+  private static final int IN_LIST_SIZE = 1000;
+
   @Autowired
   private ProximityCardRepository proximityCardRepository;
 
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private CardIndex cardIndex;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Autowired
+  private CardProvisioner cardProvisioner;
+
+  @Value("${opentna.cards.serial-key-fallback:false}")
+  private boolean serialKeyFallback;
+
   @Override
   @Transactional(propagation = Propagation.REQUIRED)
   public ProximityCard createProximityCard(@Valid ProximityCard card) {
@@ -50,19 +90,90 @@ public class CardServiceImpl implements CardService {
     entity.setEnabled(card.isEnabled());
     entity.setCreatedAt(System.currentTimeMillis());
     log.debug(String.format("%s", entity.toString()));
-    return proximityCardRepository.save(entity);
+    ProximityCard saved = proximityCardRepository.save(entity);
+    AfterCommit.run(() -> {
+      cardIndex.putCard(saved.getId(), saved.getSerialNo(), saved.isEnabled());
+      evict(saved);
+    });
+    return saved;
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public List<CardProvisionResult> createProximityCards(List<ProximityCard> cards) {
+    log.debug(String.format("size=%s", cards.size()));
+    return cardProvisioner.create(cards);
   }
 
   @Override
   public ProximityCard loadProximityCardById(long proximityCardId) {
-    return proximityCardRepository.findById(proximityCardId)
-        .orElseThrow(() -> new CardNotFoundException(proximityCardId));
+    return load(CARDS_BY_ID, proximityCardId, () -> proximityCardRepository
+        .findById(proximityCardId).orElseThrow(() -> new CardNotFoundException(proximityCardId)));
   }
 
   @Override
   public ProximityCard loadProximityCardBySerialNo(String serialNo) {
-    return proximityCardRepository.findBySerialNo(serialNo)
-        .orElseThrow(() -> new CardNotFoundException(serialNo));
+    if (cardIndex.rejects(serialNo)) {
+      throw new UnknownCardException(serialNo);
+    }
+    return load(CARDS_BY_SERIAL_NO, ProximityCard.normalizeSerialNo(serialNo),
+        () -> proximityCardRepository.findBySerialNoOrKey(serialNo, serialKeyFallback)
+            .orElseThrow(() -> new CardNotFoundException(serialNo)));
+  }
+
+  @Override
+  public Long loadOwnerIdBySerialNo(String serialNo) {
+    if (cardIndex.rejects(serialNo)) {
+      throw new UnknownCardException(serialNo);
+    }
+    Long cardId = cardIndex.findCardId(serialNo);
+    if (cardId != null) {
+      // the index holds the owners of every indexed card, a missing one means no owner
+      return cardIndex.findOwnerId(cardId);
+    }
+    // not indexed while rejecting unknown cards is disabled
+    ProximityCard card = loadProximityCardBySerialNo(serialNo);
+    Long ownerId = userRepository.findIdByProximityCardId(card.getId()).orElse(null);
+    log.debug(String.format("serialNo=%s, cardId=%s, userId=%s", serialNo, card.getId(), ownerId));
+    cardIndex.putCard(card.getId(), card.getSerialNo(), card.isEnabled());
+    if (ownerId != null) {
+      cardIndex.putOwner(card.getId(), ownerId);
+    }
+    return ownerId;
+  }
+
+  @Override
+  public boolean isAuthorized(String serialNo) {
+    return cardIndex.isAuthorized(serialNo);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRED)
+  public int updateEnabled(Collection<Long> cardIds, boolean state) {
+    List<Long> ids = new ArrayList<>(new LinkedHashSet<>(cardIds));
+    if (ids.stream().anyMatch(id -> id == null || id < 1)) {
+      throw new IllegalArgumentException("Invalid proximity card ID");
+    }
+    long now = System.currentTimeMillis();
+    int updated = 0;
+    for (int i = 0; i < ids.size(); i += IN_LIST_SIZE) {
+      updated += proximityCardRepository.updateEnabledByIdIn(
+          ids.subList(i, Math.min(i + IN_LIST_SIZE, ids.size())), state, now);
+    }
+    log.debug(String.format("size=%s, state=%s, updated=%s", ids.size(), state, updated));
+    AfterCommit.run(() -> {
+      // the serial numbers are not known here, so the cache by serial number is cleared
+      Cache byId = cacheManager.getCache(CARDS_BY_ID);
+      if (byId != null) {
+        ids.forEach(byId::evict);
+      }
+      Cache bySerialNo = cacheManager.getCache(CARDS_BY_SERIAL_NO);
+      if (bySerialNo != null) {
+        bySerialNo.clear();
+      }
+      ids.forEach(id -> cardIndex.updateCardEnabled(id, state));
+    });
+    return updated;
   }
 
   @Override
@@ -75,7 +186,8 @@ public class CardServiceImpl implements CardService {
       throw new IllegalArgumentException("Invalid proximity card ID");
     }
     boolean updates = false;
-    ProximityCard entity = loadProximityCardById(card.getId());
+    ProximityCard entity = proximityCardRepository.findById(card.getId())
+        .orElseThrow(() -> new CardNotFoundException(card.getId()));
     if (!Optional.ofNullable(entity.getDescription())
         .equals(Optional.ofNullable(card.getDescription()))) {
       entity.setDescription(card.getDescription());
@@ -88,6 +200,11 @@ public class CardServiceImpl implements CardService {
     if (updates) {
       entity.setLastModifiedAt(System.currentTimeMillis());
       entity = proximityCardRepository.save(entity);
+      ProximityCard saved = entity;
+      AfterCommit.run(() -> {
+        evict(saved);
+        cardIndex.updateCardEnabled(saved.getId(), saved.isEnabled());
+      });
       log.debug("Save");
     } else {
       log.debug("No changes");
@@ -95,4 +212,37 @@ public class CardServiceImpl implements CardService {
     return entity;
   }
 
+  private ProximityCard load(String cacheName, Object key, Supplier<ProximityCard> loader) {
+    Cache cache = cacheManager.getCache(cacheName);
+    ProximityCard cached = cache == null ? null : cache.get(key, ProximityCard.class);
+    if (cached == null) {
+      cached = copy(loader.get());
+      if (cache != null) {
+        cache.put(key, cached);
+      }
+    }
+    return copy(cached);
+  }
+
+  private static ProximityCard copy(ProximityCard card) {
+    ProximityCard copy = new ProximityCard(card.getSerialNo(), card.getDescription(),
+        card.isEnabled());
+    copy.setId(card.getId());
+    copy.setSerialKey(card.getSerialKey());
+    copy.setCreatedAt(card.getCreatedAt());
+    copy.setLastModifiedAt(card.getLastModifiedAt());
+    return copy;
+  }
+
+  private void evict(ProximityCard card) {
+    Cache byId = cacheManager.getCache(CARDS_BY_ID);
+    if (byId != null) {
+      byId.evict(card.getId());
+    }
+    Cache bySerialNo = cacheManager.getCache(CARDS_BY_SERIAL_NO);
+    if (bySerialNo != null) {
+      bySerialNo.evict(ProximityCard.normalizeSerialNo(card.getSerialNo()));
+    }
+  }
+
 }
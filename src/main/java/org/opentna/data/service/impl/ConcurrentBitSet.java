@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A growable set of non-negative IDs, one bit per ID. Reads are lock-free and allocate nothing,
+ * writes are serialized, as they only come from administrative changes.
+ *
+ * @author James Ho
+ */
+final class ConcurrentBitSet {
+
+  private volatile AtomicLongArray words = new AtomicLongArray(64);
+
+  boolean get(long id) {
+    AtomicLongArray words = this.words;
+    int index = (int) (id >>> 6);
+    return id >= 0 && index < words.length() && (words.get(index) & (1L << id)) != 0;
+  }
+
+  synchronized void set(long id, boolean value) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Invalid ID");
+    }
+    int index = (int) (id >>> 6);
+    if (index >= words.length()) {
+      if (!value) {
+        return;
+      }
+      AtomicLongArray grown = new AtomicLongArray(Math.max(index + 1, words.length() * 2));
+      for (int i = 0; i < words.length(); i++) {
+        grown.set(i, words.get(i));
+      }
+      words = grown;
+    }
+    long word = words.get(index);
+    words.set(index, value ? word | (1L << id) : word & ~(1L << id));
+  }
+
+  /**
+   * Replaces every ID at once, a concurrent read sees either the previous or the given IDs.
+   */
+  synchronized void replace(Collection<Long> ids) {
+    long max = 0;
+    for (long id : ids) {
+      if (id < 0) {
+        throw new IllegalArgumentException("Invalid ID");
+      }
+      max = Math.max(max, id);
+    }
+    AtomicLongArray replaced = new AtomicLongArray(Math.max(64, (int) (max >>> 6) + 1));
+    for (long id : ids) {
+      int index = (int) (id >>> 6);
+      replaced.set(index, replaced.get(index) | (1L << id));
+    }
+    words = replaced;
+  }
+
+}
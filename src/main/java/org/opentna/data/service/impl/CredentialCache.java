@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A short-lived cache of successfully verified credentials, so that repeated logins of the same
+ * account skip the user lookup and the bcrypt compare.
+ *
+ * <p>Only an HMAC-SHA256 digest of the presented password is kept, under a random key generated at
+ * startup, never the password itself. Entries are invalidated once a write to the user commits.
+ * A verification racing with such a write is not cached, as the generation it started from is
+ * outdated by then.
+ *
+ * <p>The invalidation is local: a password changed or a user disabled on another node is only
+ * seen here once the entry expires, which is why {@code ttl-ms} is kept to tens of seconds.
+ *
+ * @author James Ho
+ */
+@Component
+public class CredentialCache {
+
+  private static final String ALGORITHM = "HmacSHA256";
+
+  @Autowired
+  private PasswordHasher passwordHasher;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  @Value("${opentna.users.credentials.enabled:true}")
+  private boolean enabled;
+
+  @Value("${opentna.users.credentials.ttl-ms:30000}")
+  private long ttlMillis;
+
+  @Value("${opentna.users.credentials.maximum-size:10000}")
+  private long maximumSize;
+
+  /**
+   * Username to the verified credential.
+   */
+  private Cache<String, Credential> credentials;
+
+  private final AtomicLong generation = new AtomicLong();
+
+  private ThreadLocal<Mac> macs;
+
+  private Counter hitCounter;
+
+  private Counter missCounter;
+
+  private Counter savedCounter;
+
+  @PostConstruct
+  public void initialize() {
+    credentials = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .build();
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    SecretKeySpec keySpec = new SecretKeySpec(key, ALGORITHM);
+    macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(keySpec);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    hitCounter = Counter.builder("opentna.users.credentials.hits")
+        .description("The number of password verifications answered from the cache")
+        .register(meterRegistry);
+    missCounter = Counter.builder("opentna.users.credentials.misses")
+        .description("The number of password verifications not found in the cache")
+        .register(meterRegistry);
+    savedCounter = Counter.builder("opentna.users.credentials.saved")
+        .description("The estimated hashing time saved by the cache")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Retrieves the current generation, to be passed to {@link #put} once the password verifies.
+   *
+   * @return the generation
+   */
+  public long generation() {
+    return generation.get();
+  }
+
+  /**
+   * Tells whether the given credential was verified recently.
+   *
+   * @param username the username
+   * @param password the raw password
+   * @return true if the credential is cached
+   */
+  public boolean contains(String username, String password) {
+    if (!enabled) {
+      return false;
+    }
+    Credential credential = credentials.getIfPresent(username);
+    if (credential == null || !MessageDigest.isEqual(credential.digest,
+        digest(username, password))) {
+      missCounter.increment();
+      return false;
+    }
+    hitCounter.increment();
+    savedCounter.increment(passwordHasher.meanMatchSeconds());
+    return true;
+  }
+
+  /**
+   * Caches a verified credential, unless a user was invalidated since the given generation.
+   *
+   * @param generation the generation taken before loading the user
+   * @param userId the user ID
+   * @param username the username
+   * @param password the raw password
+   */
+  public void put(long generation, long userId, String username, String password) {
+    if (!enabled) {
+      return;
+    }
+    Credential credential = new Credential(userId, digest(username, password));
+    credentials.put(username, credential);
+    if (this.generation.get() != generation) {
+      credentials.asMap().remove(username, credential);
+    }
+  }
+
+  /**
+   * Invalidates the cached credential of the given user.
+   *
+   * @param userId the user ID
+   */
+  public void invalidate(long userId) {
+    generation.incrementAndGet();
+    credentials.asMap().values().removeIf(credential -> credential.userId == userId);
+  }
+
+  /**
+   * Invalidates the cached credentials of the given users.
+   *
+   * @param userIds the user IDs
+   */
+  public void invalidateAll(Collection<Long> userIds) {
+    Set<Long> ids = new HashSet<>(userIds);
+    generation.incrementAndGet();
+    credentials.asMap().values().removeIf(credential -> ids.contains(credential.userId));
+  }
+
+  private byte[] digest(String username, String password) {
+    Mac mac = macs.get();
+    mac.update(username.getBytes(StandardCharsets.UTF_8));
+    mac.update((byte) 0);
+    return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static final class Credential {
+
+    private final long userId;
+
+    private final byte[] digest;
+
+    private Credential(long userId, byte[] digest) {
+      this.userId = userId;
+      this.digest = digest;
+    }
+
+  }
+
+}
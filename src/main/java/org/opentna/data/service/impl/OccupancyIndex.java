@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.Occupant;
+import org.opentna.data.model.entity.Attendance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * An in-memory index of the users on site, from user ID to the time of the tap that brought them
+ * in.
+ *
+ * <p>The taps of a user toggle them in and out, keyed on their last tap rather than on the day,
+ * so that a shift running past midnight is kept. A tap more than {@code max-shift-ms} after the
+ * previous one always brings the user in, and users whose last tap is older than that are swept
+ * out. Loaded at startup by replaying the records of the last two {@code max-shift-ms}, streamed
+ * from the database rather than read into a list.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class OccupancyIndex {
+
+  private static final String REPLAY_SQL = "SELECT user_id, logged_unix FROM attendance_records"
+      + " WHERE user_id IS NOT NULL AND logged_unix >= ? ORDER BY user_id, logged_unix";
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Value("${opentna.occupancy.fetch-size:1000}")
+  private int fetchSize;
+
+  @Value("${opentna.occupancy.max-shift-ms:57600000}")
+  private long maxShiftMillis;
+
+  /**
+   * User ID to the time of the tap that brought them in.
+   */
+  private final ConcurrentMap<Long, Long> occupants = new ConcurrentHashMap<>();
+
+  /**
+   * User ID to the time of their last tap, within {@code max-shift-ms}.
+   */
+  private final ConcurrentMap<Long, Long> lastTaps = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public synchronized void load() {
+    occupants.clear();
+    lastTaps.clear();
+    long now = System.currentTimeMillis();
+    jdbcTemplate.query(connection -> {
+      PreparedStatement statement = connection.prepareStatement(REPLAY_SQL,
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      // MySQL streams a result set row by row only with this fetch size
+      statement.setFetchSize("MySQL".equals(connection.getMetaData().getDatabaseProductName())
+          ? Integer.MIN_VALUE : fetchSize);
+      statement.setLong(1, now - 2 * maxShiftMillis);
+      return statement;
+    }, (RowCallbackHandler) rs -> tap(rs.getLong(1), rs.getLong(2)));
+    sweep(now);
+    log.info(String.format("occupants=%s", occupants.size()));
+  }
+
+  /**
+   * Toggles the users of newly committed attendance records.
+   *
+   * @param attendances the saved attendance records
+   */
+  public void add(Collection<Attendance> attendances) {
+    for (Attendance attendance : attendances) {
+      if (attendance.getUser() == null || attendance.getUser().getId() == null) {
+        continue;
+      }
+      tap(attendance.getUser().getId(), attendance.getLoggedAt());
+    }
+  }
+
+  /**
+   * Counts the users on site, from the striped counter of the map rather than by iterating it.
+   *
+   * @return the headcount
+   */
+  public int count() {
+    return occupants.size();
+  }
+
+  public boolean contains(long userId) {
+    return occupants.containsKey(userId);
+  }
+
+  public Collection<Occupant> list() {
+    List<Occupant> list = new ArrayList<>(occupants.size());
+    occupants.forEach((userId, since) -> list.add(new Occupant(userId, since)));
+    return list;
+  }
+
+  @Scheduled(fixedDelayString = "${opentna.occupancy.sweep-ms:60000}")
+  public void sweep() {
+    sweep(System.currentTimeMillis());
+  }
+
+  private void sweep(long now) {
+    long oldest = now - maxShiftMillis;
+    lastTaps.entrySet().removeIf(entry -> entry.getValue() < oldest);
+    occupants.keySet().removeIf(userId -> !lastTaps.containsKey(userId));
+  }
+
+  private void tap(Long userId, long loggedAt) {
+    // atomic per user
+    lastTaps.compute(userId, (key, last) -> {
+      if (last == null || loggedAt - last > maxShiftMillis) {
+        occupants.put(userId, loggedAt);
+      } else if (occupants.remove(userId) == null) {
+        // toggles in, even for a late tap older than the last one
+        occupants.put(userId, loggedAt);
+      }
+      return last == null ? loggedAt : Math.max(last, loggedAt);
+    });
+  }
+
+}
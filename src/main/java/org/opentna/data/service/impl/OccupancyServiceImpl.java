@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.util.Collection;
+import org.opentna.data.model.Occupant;
+import org.opentna.data.service.OccupancyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * An implementation of the occupancy service, backed by the {@link OccupancyIndex}.
+ *
+ * @author James Ho
+ */
+@Service
+public class OccupancyServiceImpl implements OccupancyService {
+
+  @Autowired
+  private OccupancyIndex occupancyIndex;
+
+  @Override
+  public int countOccupants() {
+    return occupancyIndex.count();
+  }
+
+  @Override
+  public Collection<Occupant> loadOccupants() {
+    return occupancyIndex.list();
+  }
+
+  @Override
+  public boolean isPresent(long userId) {
+    return occupancyIndex.contains(userId);
+  }
+
+}
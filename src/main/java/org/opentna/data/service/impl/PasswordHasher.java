@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.service.HashingRejectedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hashes and verifies passwords with bcrypt, on a dedicated executor sized to the CPUs.
+ *
+ * <p>A hash takes tens of milliseconds of CPU at production cost, so it never runs on the calling
+ * thread: a login storm queues up here, bounded by {@code queue-capacity}, instead of starving the
+ * request threads. Callers hash before opening a transaction, so that no connection is held while
+ * waiting.
+ *
+ * <p>Secrets saved before passwords were hashed are plaintext. They still verify, compared in
+ * constant time, until {@link #isEncoded} tells the caller to rehash them.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class PasswordHasher {
+
+  /**
+   * The secret of the users without a password, never matched by any password.
+   */
+  static final String LOCKED_SECRET = "!";
+
+  private static final Pattern BCRYPT =
+      Pattern.compile("\\A\\$2[aby]?\\$\\d\\d\\$[./0-9A-Za-z]{53}");
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  @Value("${opentna.users.password.bcrypt-strength:10}")
+  private int strength;
+
+  @Value("${opentna.users.password.threads:0}")
+  private int threads;
+
+  @Value("${opentna.users.password.queue-capacity:200}")
+  private int queueCapacity;
+
+  @Value("${opentna.users.password.timeout-ms:10000}")
+  private long timeoutMillis;
+
+  private PasswordEncoder encoder;
+
+  /**
+   * The hash of a random password, verified against when there is no hash to verify against.
+   */
+  private String dummyHash;
+
+  private ThreadPoolExecutor executor;
+
+  private Timer encodeTimer;
+
+  private Timer matchTimer;
+
+  private Counter rejectedCounter;
+
+  @PostConstruct
+  public void initialize() {
+    encoder = new BCryptPasswordEncoder(strength);
+    dummyHash = encoder.encode(UUID.randomUUID().toString());
+    int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "password-hasher-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    Gauge.builder("opentna.users.password.queue.size", executor.getQueue(), Collection::size)
+        .description("The number of password hashes waiting for a thread")
+        .register(meterRegistry);
+    encodeTimer = Timer.builder("opentna.users.password.encode")
+        .description("The time spent hashing a password")
+        .register(meterRegistry);
+    matchTimer = Timer.builder("opentna.users.password.match")
+        .description("The time spent verifying a password")
+        .register(meterRegistry);
+    rejectedCounter = Counter.builder("opentna.users.password.rejected")
+        .description("The number of password hashes rejected because the queue was full")
+        .register(meterRegistry);
+    log.info(String.format("Started, strength=%s, threads=%s", strength, size));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Hashes a password.
+   *
+   * @param password the raw password
+   * @return the encoded password
+   * @throws HashingRejectedException if the queue is full or the hash times out
+   */
+  public String encode(String password) {
+    return call(() -> encodeTimer.recordCallable(() -> encoder.encode(password)));
+  }
+
+  /**
+   * Hashes passwords concurrently, at most one per thread at a time, so that the queue is left to
+   * the logins.
+   *
+   * @param passwords the raw passwords
+   * @return the encoded passwords, in the given order
+   * @throws HashingRejectedException if the queue is full or a hash times out
+   */
+  public List<String> encodeAll(List<String> passwords) {
+    int window = executor.getMaximumPoolSize();
+    List<Future<String>> futures = new ArrayList<>(passwords.size());
+    List<String> hashes = new ArrayList<>(passwords.size());
+    try {
+      for (String password : passwords) {
+        if (futures.size() - hashes.size() >= window) {
+          hashes.add(await(futures.get(hashes.size())));
+        }
+        futures.add(submit(() -> encodeTimer.recordCallable(() -> encoder.encode(password))));
+      }
+      while (hashes.size() < futures.size()) {
+        hashes.add(await(futures.get(hashes.size())));
+      }
+    } catch (RuntimeException e) {
+      futures.forEach(future -> future.cancel(true));
+      throw e;
+    }
+    return hashes;
+  }
+
+  /**
+   * Verifies a password against its hash.
+   *
+   * @param password the raw password
+   * @param encodedPassword the encoded password
+   * @return true if the password matches
+   * @throws HashingRejectedException if the queue is full or the verification times out
+   */
+  public boolean matches(String password, String encodedPassword) {
+    if (isEncoded(encodedPassword)) {
+      return call(() ->
+          matchTimer.recordCallable(() -> encoder.matches(password, encodedPassword)));
+    }
+    // takes as long as a hash compare, so that a plaintext secret does not show
+    mismatch(password);
+    return encodedPassword != null && !LOCKED_SECRET.equals(encodedPassword)
+        && MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+            encodedPassword.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Verifies a password against a hash no password matches, so that a verification without a
+   * user takes as long as one with a user.
+   *
+   * @param password the raw password
+   * @throws HashingRejectedException if the queue is full or the verification times out
+   */
+  public void mismatch(String password) {
+    call(() -> matchTimer.recordCallable(() -> encoder.matches(password, dummyHash)));
+  }
+
+  /**
+   * Tells whether the given secret is a bcrypt hash, rather than a plaintext secret saved before
+   * passwords were hashed.
+   *
+   * @param encodedPassword the secret
+   * @return true if the secret is a hash or the locked secret
+   */
+  public static boolean isEncoded(String encodedPassword) {
+    return encodedPassword != null && (LOCKED_SECRET.equals(encodedPassword)
+        || BCRYPT.matcher(encodedPassword).matches());
+  }
+
+  /**
+   * Retrieves the mean time of a password verification so far.
+   *
+   * @return the mean time, in seconds
+   */
+  public double meanMatchSeconds() {
+    return matchTimer.mean(TimeUnit.SECONDS);
+  }
+
+  private <T> T call(Callable<T> task) {
+    return await(submit(task));
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    try {
+      return executor.submit(task);
+    } catch (RejectedExecutionException e) {
+      rejectedCounter.increment();
+      throw new HashingRejectedException(queueCapacity);
+    }
+  }
+
+  private <T> T await(Future<T> future) {
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      rejectedCounter.increment();
+      throw new HashingRejectedException(timeoutMillis);
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while hashing a password", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.opentna.data.model.entity.Attendance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A sliding window of recently saved taps, used to answer repeated taps without a database round
+ * trip.
+ *
+ * <p>A tap is keyed by {@code (user_id, card_id, logged_unix)}, the same columns as the unique
+ * constraint of {@link Attendance}, and kept in a bucket per {@code bucket-ms} of its logged time.
+ * Buckets older than {@code window-ms} are dropped. Each bucket packs its taps into a single
+ * {@code long[]}, an open-addressing table of five longs per tap probed from a 64-bit fingerprint
+ * of the key. That is 53 to 107 bytes per tap as the table fills up to 3/4 and doubles, against
+ * some 110 for a map entry holding a boxed key and an array. The full key is compared on every
+ * probe, so that two taps sharing a fingerprint are never mistaken for each other.
+ *
+ * @author James Ho
+ */
+@Component
+public class RecentTaps {
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  @Value("${opentna.records.dedupe.enabled:true}")
+  private boolean enabled;
+
+  @Value("${opentna.records.dedupe.window-ms:600000}")
+  private long windowMillis;
+
+  @Value("${opentna.records.dedupe.bucket-ms:60000}")
+  private long bucketMillis;
+
+  private final ConcurrentNavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+
+  private Counter hitCounter;
+
+  @PostConstruct
+  public void initialize() {
+    hitCounter = Counter.builder("opentna.records.dedupe.hits")
+        .description("The number of duplicate taps answered without a database round trip")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Looks up an already saved record for the given tap.
+   *
+   * @param attendance the attendance model
+   * @return a detached copy of the saved attendance record, or null if the tap is not known
+   */
+  public Attendance find(Attendance attendance) {
+    if (!enabled || !isTrackable(attendance)) {
+      return null;
+    }
+    Bucket bucket = buckets.get(attendance.getLoggedAt() / bucketMillis);
+    long[] saved = bucket == null ? null : bucket.get(userId(attendance),
+        attendance.getProximityCard().getId(), attendance.getLoggedAt());
+    if (saved == null) {
+      return null;
+    }
+    hitCounter.increment();
+    return new Attendance(saved[0], attendance.getUser(), attendance.getProximityCard(),
+        attendance.getLoggedAt(), saved[1]);
+  }
+
+  /**
+   * Remembers a saved attendance record.
+   *
+   * @param attendance the saved attendance record
+   */
+  public void put(Attendance attendance) {
+    if (!enabled || !isTrackable(attendance) || attendance.getId() == null) {
+      return;
+    }
+    long oldest = (System.currentTimeMillis() - windowMillis) / bucketMillis;
+    buckets.headMap(oldest).clear();
+    long index = attendance.getLoggedAt() / bucketMillis;
+    if (index < oldest) {
+      return;
+    }
+    buckets.computeIfAbsent(index, key -> new Bucket()).put(attendance.getId(),
+        attendance.getCreatedAt(), userId(attendance), attendance.getProximityCard().getId(),
+        attendance.getLoggedAt());
+  }
+
+  /**
+   * Retrieves the unique key of a tap, e.g. to find the taps repeated within a batch.
+   *
+   * @param attendance the attendance model
+   * @return the key, or null if the tap cannot be tracked
+   */
+  static Key key(Attendance attendance) {
+    if (!isTrackable(attendance)) {
+      return null;
+    }
+    return new Key(userId(attendance), attendance.getProximityCard().getId(),
+        attendance.getLoggedAt());
+  }
+
+  /**
+   * Mixes the unique key of a tap into 64 bits, with the finalizer of MurmurHash3.
+   */
+  private static long fingerprint(long userId, long cardId, long loggedAt) {
+    long hash = loggedAt;
+    hash = hash * 0x9E3779B97F4A7C15L + cardId;
+    hash = hash * 0x9E3779B97F4A7C15L + userId;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static long userId(Attendance attendance) {
+    return attendance.getUser() == null || attendance.getUser().getId() == null
+        ? 0L : attendance.getUser().getId();
+  }
+
+  private static boolean isTrackable(Attendance attendance) {
+    return attendance.getLoggedAt() != null
+        && attendance.getProximityCard() != null
+        && attendance.getProximityCard().getId() != null;
+  }
+
+  /**
+   * The unique key of a tap.
+   */
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  static final class Key {
+
+    private final long userId;
+
+    private final long cardId;
+
+    private final long loggedAt;
+
+  }
+
+  /**
+   * The taps of one bucket, as slots of {@code [id, created_unix, user_id, card_id, logged_unix]}
+   * with linear probing. A slot is free while its ID is 0, as IDs start at 1.
+   */
+  private static final class Bucket {
+
+    private static final int STRIDE = 5;
+
+    private long[] slots = new long[16 * STRIDE];
+
+    private int size;
+
+    synchronized long[] get(long userId, long cardId, long loggedAt) {
+      int offset = probe(slots, userId, cardId, loggedAt);
+      return slots[offset] == 0L ? null : new long[] {slots[offset], slots[offset + 1]};
+    }
+
+    synchronized void put(long id, long createdAt, long userId, long cardId, long loggedAt) {
+      int offset = probe(slots, userId, cardId, loggedAt);
+      if (slots[offset] == 0L) {
+        if ((size + 1) * 4 > slots.length / STRIDE * 3) {
+          resize();
+          offset = probe(slots, userId, cardId, loggedAt);
+        }
+        size++;
+      }
+      write(slots, offset, id, createdAt, userId, cardId, loggedAt);
+    }
+
+    private void resize() {
+      long[] resized = new long[slots.length * 2];
+      for (int offset = 0; offset < slots.length; offset += STRIDE) {
+        if (slots[offset] != 0L) {
+          write(resized, probe(resized, slots[offset + 2], slots[offset + 3], slots[offset + 4]),
+              slots[offset], slots[offset + 1], slots[offset + 2], slots[offset + 3],
+              slots[offset + 4]);
+        }
+      }
+      slots = resized;
+    }
+
+    /**
+     * Finds the slot of the given key, or the free slot where it belongs.
+     */
+    private static int probe(long[] slots, long userId, long cardId, long loggedAt) {
+      int mask = slots.length / STRIDE - 1;
+      int index = (int) fingerprint(userId, cardId, loggedAt) & mask;
+      while (true) {
+        int offset = index * STRIDE;
+        if (slots[offset] == 0L || (slots[offset + 2] == userId && slots[offset + 3] == cardId
+            && slots[offset + 4] == loggedAt)) {
+          return offset;
+        }
+        index = (index + 1) & mask;
+      }
+    }
+
+    private static void write(long[] slots, int offset, long id, long createdAt, long userId,
+        long cardId, long loggedAt) {
+      slots[offset] = id;
+      slots[offset + 1] = createdAt;
+      slots[offset + 2] = userId;
+      slots[offset + 3] = cardId;
+      slots[offset + 4] = loggedAt;
+    }
+
+  }
+
+}
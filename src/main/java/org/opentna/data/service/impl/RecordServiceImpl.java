@@ -16,16 +16,34 @@
 
 package org.opentna.data.service.impl;
 
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.AttendanceRow;
+import org.opentna.data.model.KeysetPage;
 import org.opentna.data.model.entity.Attendance;
 import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.Timesheet;
 import org.opentna.data.model.entity.User;
 import org.opentna.data.repository.AttendanceRepository;
+import org.opentna.data.repository.ProximityCardRepository;
+import org.opentna.data.repository.TimesheetRepository;
+import org.opentna.data.repository.UserRepository;
+import org.opentna.data.service.CardNotFoundException;
+import org.opentna.data.service.RecordExportFormat;
 import org.opentna.data.service.RecordNotFoundException;
 import org.opentna.data.service.RecordService;
+import org.opentna.data.service.UnknownCardException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -43,16 +61,133 @@ public class RecordServiceImpl implements RecordService {
   @Autowired
   private AttendanceRepository attendanceRepository;
 
+  @Autowired
+  private ProximityCardRepository proximityCardRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private TimesheetRepository timesheetRepository;
+
+  @Autowired
+  private AttendanceWriter attendanceWriter;
+
+  @Autowired
+  private CardIndex cardIndex;
+
+  @Autowired
+  private AttendanceExporter attendanceExporter;
+
+  @Autowired
+  private OccupancyIndex occupancyIndex;
+
+  @Autowired
+  private TimesheetAggregator timesheetAggregator;
+
+  @Autowired
+  private RecentTaps recentTaps;
+
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+  private int batchSize;
+
+  @Value("${opentna.records.max-page-size:1000}")
+  private int maxPageSize;
+
+  @Value("${opentna.cards.serial-key-fallback:false}")
+  private boolean serialKeyFallback;
+
   @Override
   @Transactional(propagation = Propagation.REQUIRED)
   public Attendance createAttendance(@Valid Attendance attendance) {
-    Attendance entity = new Attendance();
-    entity.setUser(attendance.getUser());
-    entity.setProximityCard(attendance.getProximityCard());
-    entity.setLoggedAt(attendance.getLoggedAt());
-    entity.setCreatedAt(System.currentTimeMillis());
+    Attendance duplicate = recentTaps.find(attendance);
+    if (duplicate != null) {
+      log.debug(String.format("Duplicate of %s", duplicate.getId()));
+      return duplicate;
+    }
+    Attendance entity = newAttendance(attendance, System.currentTimeMillis());
     log.debug(String.format("%s", entity.toString()));
-    return attendanceRepository.save(entity);
+    entity = attendanceRepository.save(entity);
+    afterSave(Collections.singletonList(entity));
+    return entity;
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRED)
+  public Collection<Attendance> createAttendances(@Valid Collection<Attendance> attendances) {
+    long now = System.currentTimeMillis();
+    List<Attendance> results = new ArrayList<>(attendances.size());
+    List<Attendance> entities = new ArrayList<>(attendances.size());
+    Map<RecentTaps.Key, Attendance> batch = new HashMap<>();
+    for (Attendance attendance : attendances) {
+      // the same tap may also be repeated within a batch
+      RecentTaps.Key key = RecentTaps.key(attendance);
+      Attendance duplicate = key == null ? null : batch.get(key);
+      if (duplicate == null) {
+        duplicate = recentTaps.find(attendance);
+      }
+      if (duplicate != null) {
+        results.add(duplicate);
+        continue;
+      }
+      Attendance entity = newAttendance(attendance, now);
+      if (key != null) {
+        batch.put(key, entity);
+      }
+      entities.add(entity);
+      results.add(entity);
+    }
+    // flushes once per JDBC batch, so the action queue never outgrows a single batch
+    for (int from = 0; from < entities.size(); from += batchSize) {
+      int to = Math.min(from + batchSize, entities.size());
+      attendanceRepository.saveAll(entities.subList(from, to));
+      attendanceRepository.flush();
+    }
+    afterSave(entities);
+    log.debug(String.format("size=%s, duplicates=%s", entities.size(),
+        results.size() - entities.size()));
+    return results;
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void submitAttendance(@Valid Attendance attendance) {
+    attendanceWriter.submit(attendance);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRED)
+  public Attendance recordTap(String serialNo, long loggedAt) {
+    Long cardId = cardIndex.findCardId(serialNo);
+    Long ownerId;
+    if (cardId != null) {
+      ownerId = cardIndex.findOwnerId(cardId);
+    } else if (cardIndex.rejects(serialNo)) {
+      throw new UnknownCardException(serialNo);
+    } else {
+      // not indexed yet while rejecting unknown cards is disabled
+      ProximityCard card = proximityCardRepository.findBySerialNoOrKey(serialNo, serialKeyFallback)
+          .orElseThrow(() -> new CardNotFoundException(serialNo));
+      cardId = card.getId();
+      ownerId = userRepository.findIdByProximityCardId(cardId).orElse(null);
+      cardIndex.putCard(cardId, serialNo, card.isEnabled());
+      if (ownerId != null) {
+        cardIndex.putOwner(cardId, ownerId);
+      }
+    }
+    log.debug(String.format("serialNo=%s, cardId=%s, userId=%s", serialNo, cardId, ownerId));
+    // references by ID only, the foreign keys need nothing else
+    ProximityCard card = new ProximityCard();
+    card.setId(cardId);
+    Attendance attendance = new Attendance();
+    attendance.setProximityCard(card);
+    if (ownerId != null) {
+      User user = new User();
+      user.setId(ownerId);
+      attendance.setUser(user);
+    }
+    attendance.setLoggedAt(loggedAt);
+    return createAttendance(attendance);
   }
 
   @Override
@@ -62,21 +197,119 @@ public class RecordServiceImpl implements RecordService {
   }
 
   @Override
-  public Collection<Attendance> loadAttendanceByUser(User user) {
+  public Collection<AttendanceRow> loadAttendanceByUser(User user) {
     if (user.getId() == null || user.getId() < 1) {
       throw new IllegalArgumentException("Invalid user ID");
     }
     log.debug(String.format("username=%s", user.getUsername()));
-    return attendanceRepository.findByUser(user);
+    return attendanceRepository.findRowsByUserId(user.getId());
   }
 
   @Override
-  public Collection<Attendance> loadAttendanceByProximityCard(ProximityCard card) {
+  public Collection<AttendanceRow> loadAttendanceByProximityCard(ProximityCard card) {
     if (card.getId() == null || card.getId() < 1) {
       throw new IllegalArgumentException("Invalid proximity card ID");
     }
     log.debug(String.format("serilaNo=%s", card.getSerialNo()));
-    return attendanceRepository.findByProximityCard(card);
+    return attendanceRepository.findRowsByProximityCardId(card.getId());
+  }
+
+  @Override
+  public KeysetPage<AttendanceRow> loadAttendanceByUser(User user, long from, long to,
+      String pageToken, int size) {
+    if (user.getId() == null || user.getId() < 1) {
+      throw new IllegalArgumentException("Invalid user ID");
+    }
+    long[] seek = seekPosition(from, pageToken, size);
+    log.debug(String.format("username=%s, seek=%s:%s", user.getUsername(), seek[0], seek[1]));
+    return KeysetPage.of(
+        attendanceRepository.findRowsByUserIdAfter(user.getId(), seek[0], seek[1], to,
+            PageRequest.of(0, size + 1)),
+        size, RecordServiceImpl::seekKeys);
+  }
+
+  @Override
+  public KeysetPage<AttendanceRow> loadAttendanceByProximityCard(ProximityCard card, long from,
+      long to, String pageToken, int size) {
+    if (card.getId() == null || card.getId() < 1) {
+      throw new IllegalArgumentException("Invalid proximity card ID");
+    }
+    long[] seek = seekPosition(from, pageToken, size);
+    log.debug(String.format("serialNo=%s, seek=%s:%s", card.getSerialNo(), seek[0], seek[1]));
+    return KeysetPage.of(
+        attendanceRepository.findRowsByProximityCardIdAfter(card.getId(), seek[0], seek[1], to,
+            PageRequest.of(0, size + 1)),
+        size, RecordServiceImpl::seekKeys);
+  }
+
+  @Override
+  public long exportAttendances(long from, long to, RecordExportFormat format,
+      OutputStream out) {
+    if (from > to) {
+      throw new IllegalArgumentException("Invalid logged time range");
+    }
+    return attendanceExporter.export(from, to, format, out);
+  }
+
+  @Override
+  public Collection<Timesheet> loadTimesheetsByUser(long userId, LocalDate from, LocalDate to) {
+    if (userId < 1) {
+      throw new IllegalArgumentException("Invalid user ID");
+    }
+    return timesheetRepository.findByUserIdAndWorkDateBetweenOrderByWorkDate(userId, from, to);
+  }
+
+  @Override
+  public Collection<Timesheet> loadTimesheetsByDate(LocalDate workDate) {
+    return timesheetRepository.findByWorkDateOrderByUserId(workDate);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRED)
+  public int rebuildTimesheets(LocalDate from, LocalDate to) {
+    if (from.isAfter(to)) {
+      throw new IllegalArgumentException("Invalid date range");
+    }
+    return timesheetAggregator.rebuild(from, to);
+  }
+
+  private long[] seekPosition(long from, String pageToken, int size) {
+    if (size < 1 || size > maxPageSize) {
+      throw new IllegalArgumentException("Invalid page size");
+    }
+    long[] seek = {from, 0L};
+    if (pageToken != null) {
+      String[] keys = KeysetPage.decodeToken(pageToken, 2);
+      seek[0] = Long.parseLong(keys[0]);
+      seek[1] = Long.parseLong(keys[1]);
+    }
+    if (seek[0] < from) {
+      // IDs start at 1, so seeking from (from, 0) starts right at the lower bound
+      seek[0] = from;
+      seek[1] = 0L;
+    }
+    return seek;
+  }
+
+  private static Object[] seekKeys(AttendanceRow row) {
+    return new Object[] {row.getLoggedAt(), row.getId()};
+  }
+
+  private void afterSave(Collection<Attendance> entities) {
+    timesheetAggregator.add(entities);
+    AfterCommit.run(() -> {
+      entities.forEach(recentTaps::put);
+      occupancyIndex.add(entities);
+    });
+  }
+
+  private Attendance newAttendance(Attendance attendance, long createdAt) {
+    Attendance entity = new Attendance();
+    entity.setUser(attendance.getUser());
+    entity.setProximityCard(attendance.getProximityCard());
+    entity.setLoggedAt(attendance.getLoggedAt());
+    entity.setCreatedAt(createdAt);
+    return entity;
   }
 
 }
@@ -60,7 +60,7 @@ public class RoleServiceImpl implements RoleService {
 
   @Override
   public Role loadRoleByName(String name) {
-    return roleRepository.findByName(name).orElseThrow(() -> new RoleNotFoundException(name));
+    return roleRepository.findByNaturalId(name).orElseThrow(() -> new RoleNotFoundException(name));
   }
 
   @Override
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Cache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.NaturalIdCacheStatistics;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.opentna.data.model.entity.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The metrics and the manual eviction of the Hibernate second-level cache.
+ *
+ * <p>Every entity, collection and natural ID region is reported as
+ * {@code opentna.cache.region.requests} and {@code opentna.cache.region.puts} counters, and an
+ * {@code opentna.cache.region.hit.ratio} gauge, tagged with its region name. Hibernate statistics
+ * are turned on for that, as hits and misses are not counted otherwise.
+ *
+ * <p>Writes through JPQL and native queries evict the affected regions by themselves, writes
+ * through JDBC have to be evicted here once they commit.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class SecondLevelCache {
+
+  private static final long[] NO_COUNTS = new long[3];
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+  private SessionFactoryImplementor sessionFactory;
+
+  @PostConstruct
+  public void initialize() {
+    sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+    if (!sessionFactory.getSessionFactoryOptions().isSecondLevelCacheEnabled()) {
+      return;
+    }
+    Statistics statistics = sessionFactory.getStatistics();
+    statistics.setStatisticsEnabled(true);
+    Map<String, Function<String, long[]>> regions = new LinkedHashMap<>();
+    Function<String, long[]> dataCounts = region -> {
+      SecondLevelCacheStatistics stats = statistics.getSecondLevelCacheStatistics(region);
+      return stats == null ? NO_COUNTS
+          : new long[] {stats.getHitCount(), stats.getMissCount(), stats.getPutCount()};
+    };
+    Function<String, long[]> naturalIdCounts = region -> {
+      NaturalIdCacheStatistics stats = statistics.getNaturalIdCacheStatistics(region);
+      return stats == null ? NO_COUNTS
+          : new long[] {stats.getHitCount(), stats.getMissCount(), stats.getPutCount()};
+    };
+    for (EntityPersister persister : sessionFactory.getMetamodel().entityPersisters().values()) {
+      if (persister.hasCache()) {
+        regions.put(persister.getCacheAccessStrategy().getRegion().getName(), dataCounts);
+      }
+      if (persister.hasNaturalIdCache()) {
+        regions.put(persister.getNaturalIdCacheAccessStrategy().getRegion().getName(),
+            naturalIdCounts);
+      }
+    }
+    for (CollectionPersister persister :
+        sessionFactory.getMetamodel().collectionPersisters().values()) {
+      if (persister.hasCache()) {
+        regions.put(persister.getCacheAccessStrategy().getRegion().getName(), dataCounts);
+      }
+    }
+    regions.forEach(this::register);
+    log.info(String.format("Second-level cache regions: %s", regions.keySet()));
+  }
+
+  /**
+   * Evicts the given users, along with their roles and proximity cards, from the second-level
+   * cache.
+   *
+   * @param userIds the user IDs
+   */
+  public void evictUsers(Collection<Long> userIds) {
+    Cache cache = sessionFactory.getCache();
+    for (Long userId : userIds) {
+      cache.evictEntity(User.class, userId);
+      cache.evictCollection(User.class.getName() + ".roles", userId);
+      cache.evictCollection(User.class.getName() + ".proximityCards", userId);
+    }
+  }
+
+  /**
+   * Evicts the proximity cards of every user from the second-level cache, e.g. after cards were
+   * moved between users.
+   */
+  public void evictAllUserProximityCards() {
+    sessionFactory.getCache().evictCollectionRegion(User.class.getName() + ".proximityCards");
+  }
+
+  private void register(String region, Function<String, long[]> counts) {
+    FunctionCounter.builder("opentna.cache.region.requests", region,
+        name -> counts.apply(name)[0])
+        .description("The number of lookups answered by a second-level cache region")
+        .tags("region", region, "result", "hit")
+        .register(meterRegistry);
+    FunctionCounter.builder("opentna.cache.region.requests", region,
+        name -> counts.apply(name)[1])
+        .description("The number of lookups answered by a second-level cache region")
+        .tags("region", region, "result", "miss")
+        .register(meterRegistry);
+    FunctionCounter.builder("opentna.cache.region.puts", region,
+        name -> counts.apply(name)[2])
+        .description("The number of entries put in a second-level cache region")
+        .tags("region", region)
+        .register(meterRegistry);
+    Gauge.builder("opentna.cache.region.hit.ratio", region, name -> {
+      long[] values = counts.apply(name);
+      long requests = values[0] + values[1];
+      return requests == 0 ? Double.NaN : (double) values[0] / requests;
+    })
+        .description("The ratio of lookups answered by a second-level cache region")
+        .tags("region", region)
+        .register(meterRegistry);
+  }
+
+}
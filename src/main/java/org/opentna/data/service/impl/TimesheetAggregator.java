@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.entity.Attendance;
+import org.opentna.data.model.entity.Timesheet;
+import org.opentna.data.repository.AttendanceRepository;
+import org.opentna.data.repository.TimesheetRepository;
+import org.opentna.data.service.RecordService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the daily timesheets from attendance records, must be called within the transaction
+ * that writes the records.
+ *
+ * <p>The taps are added after the records commit, with one upsert per user-day in a transaction
+ * of their own, so that a failure, such as a deadlock of concurrent first taps, can never roll
+ * back the records. A failed upsert is retried and then left to the nightly rebuild, which
+ * rebuilds the timesheets of the last {@code rebuild-days} days before today from the records.
+ *
+ * <p>A rebuild waits for the taps whose records are being written to be added, and holds back
+ * the new ones until it commits, so that no tap is counted twice or lost. This only covers the
+ * writes of this node.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class TimesheetAggregator {
+
+  private static final String MYSQL_UPSERT_SQL = "INSERT INTO daily_timesheets"
+      + " (user_id, work_date, first_in_unix, last_out_unix, tap_count, created_unix)"
+      + " VALUES (?, ?, ?, ?, ?, ?)"
+      + " ON DUPLICATE KEY UPDATE tap_count = tap_count + VALUES(tap_count),"
+      + " first_in_unix = LEAST(first_in_unix, VALUES(first_in_unix)),"
+      + " last_out_unix = GREATEST(last_out_unix, VALUES(last_out_unix)),"
+      + " modified_unix = VALUES(created_unix)";
+
+  private static final String MERGE_SQL = "MERGE INTO daily_timesheets"
+      + " (user_id, work_date, first_in_unix, last_out_unix, tap_count, created_unix,"
+      + " modified_unix) KEY (user_id, work_date)"
+      + " SELECT s.user_id, s.work_date,"
+      + " LEAST(COALESCE(t.first_in_unix, s.first_in_unix), s.first_in_unix),"
+      + " GREATEST(COALESCE(t.last_out_unix, s.last_out_unix), s.last_out_unix),"
+      + " COALESCE(t.tap_count, 0) + s.tap_count, COALESCE(t.created_unix, s.created_unix),"
+      + " CASE WHEN t.id IS NULL THEN NULL ELSE s.created_unix END"
+      + " FROM (SELECT CAST(? AS BIGINT) user_id, CAST(? AS DATE) work_date,"
+      + " CAST(? AS BIGINT) first_in_unix, CAST(? AS BIGINT) last_out_unix,"
+      + " CAST(? AS INT) tap_count, CAST(? AS BIGINT) created_unix) s"
+      + " LEFT JOIN daily_timesheets t ON t.user_id = s.user_id AND t.work_date = s.work_date";
+
+  private static final Comparator<Key> KEY_ORDER =
+      Comparator.comparingLong((Key key) -> key.userId).thenComparing(key -> key.workDate);
+
+  @Autowired
+  private TimesheetRepository timesheetRepository;
+
+  @Autowired
+  private AttendanceRepository attendanceRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  @Lazy
+  private RecordService recordService;
+
+  @Value("${opentna.records.timesheets.rebuild-days:2}")
+  private int rebuildDays;
+
+  @Value("${opentna.records.timesheets.upsert-attempts:3}")
+  private int upsertAttempts;
+
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+  private int batchSize;
+
+  private final ZoneId zone;
+
+  private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+  private volatile String upsertSql;
+
+  public TimesheetAggregator(@Value("${opentna.records.time-zone:}") String zone) {
+    this.zone = zone.isEmpty() ? ZoneId.systemDefault() : ZoneId.of(zone);
+  }
+
+  /**
+   * Retrieves the local date of the given time.
+   *
+   * @param time the time in milliseconds
+   * @return the local date in the configured time zone
+   */
+  public LocalDate toLocalDate(long time) {
+    return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+  }
+
+  /**
+   * Retrieves the start of the given local date.
+   *
+   * @param date the local date
+   * @return the time in milliseconds
+   */
+  public long toStartOfDay(LocalDate date) {
+    return date.atStartOfDay(zone).toInstant().toEpochMilli();
+  }
+
+  /**
+   * Adds newly saved attendance records to their timesheets once the transaction commits.
+   *
+   * @param attendances the saved attendance records
+   */
+  public void add(Collection<Attendance> attendances) {
+    Map<Key, long[]> totals = new TreeMap<>(KEY_ORDER);
+    for (Attendance attendance : attendances) {
+      if (attendance.getUser() == null || attendance.getUser().getId() == null) {
+        continue;
+      }
+      accumulate(totals, attendance.getUser().getId(), attendance.getLoggedAt());
+    }
+    if (totals.isEmpty()) {
+      return;
+    }
+    Lock lock = rebuildLock.readLock();
+    lock.lock();
+    AfterCommit.run(() -> upsert(totals), lock::unlock);
+  }
+
+  /**
+   * Rebuilds the timesheets of the last {@code rebuild-days} days before today.
+   */
+  @Scheduled(cron = "${opentna.records.timesheets.rebuild-cron:0 15 3 * * *}",
+      zone = "${opentna.records.time-zone:}")
+  public void repair() {
+    if (rebuildDays < 1) {
+      return;
+    }
+    LocalDate today = toLocalDate(System.currentTimeMillis());
+    recordService.rebuildTimesheets(today.minusDays(rebuildDays), today.minusDays(1));
+  }
+
+  /**
+   * Rebuilds the timesheets of the given dates from the attendance records.
+   *
+   * @param from the first local date
+   * @param to the last local date, inclusive
+   * @return the number of rebuilt timesheets
+   */
+  public int rebuild(LocalDate from, LocalDate to) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    Lock lock = rebuildLock.writeLock();
+    lock.lock();
+    try {
+      return transactionTemplate.execute(status -> replace(from, to));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int replace(LocalDate from, LocalDate to) {
+    int deleted = timesheetRepository.deleteByWorkDateBetween(from, to);
+    Map<Key, long[]> totals = new HashMap<>();
+    try (Stream<Object[]> rows = attendanceRepository.streamUserIdAndLoggedAt(
+        toStartOfDay(from), toStartOfDay(to.plusDays(1)))) {
+      rows.forEach(row -> accumulate(totals, (Long) row[0], (Long) row[1]));
+    }
+    long now = System.currentTimeMillis();
+    List<Timesheet> timesheets = new ArrayList<>(batchSize);
+    for (Map.Entry<Key, long[]> entry : totals.entrySet()) {
+      timesheets.add(newTimesheet(entry.getKey(), entry.getValue(), now));
+      if (timesheets.size() == batchSize) {
+        timesheetRepository.saveAll(timesheets);
+        timesheetRepository.flush();
+        timesheets.clear();
+      }
+    }
+    timesheetRepository.saveAll(timesheets);
+    log.info(String.format("from=%s, to=%s, deleted=%s, rebuilt=%s", from, to, deleted,
+        totals.size()));
+    return totals.size();
+  }
+
+  /**
+   * Adds the taps with one upsert per user-day, in the order of the unique key so that
+   * concurrent batches lock the timesheets in the same order.
+   */
+  private void upsert(Map<Key, long[]> totals) {
+    long now = System.currentTimeMillis();
+    List<Object[]> args = new ArrayList<>(totals.size());
+    totals.forEach((key, total) -> args.add(new Object[] {key.userId,
+        Date.valueOf(key.workDate), total[0], total[1], (int) total[2], now}));
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    for (int attempt = 1; ; attempt++) {
+      try {
+        transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(upsertSql(), args));
+        return;
+      } catch (ConcurrencyFailureException | DuplicateKeyException e) {
+        if (attempt >= upsertAttempts) {
+          log.warn(String.format("Timesheets left to the rebuild, keys=%s", totals.keySet()), e);
+          return;
+        }
+        log.debug(String.format("Concurrent timesheet upsert, attempt=%s", attempt));
+      } catch (DataAccessException | TransactionException e) {
+        log.warn(String.format("Timesheets left to the rebuild, keys=%s", totals.keySet()), e);
+        return;
+      }
+    }
+  }
+
+  private String upsertSql() {
+    if (upsertSql == null) {
+      upsertSql = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+          connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql"))
+          ? MYSQL_UPSERT_SQL : MERGE_SQL;
+    }
+    return upsertSql;
+  }
+
+  private void accumulate(Map<Key, long[]> totals, long userId, long loggedAt) {
+    long[] total = totals.computeIfAbsent(new Key(userId, toLocalDate(loggedAt)),
+        key -> new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0L});
+    total[0] = Math.min(total[0], loggedAt);
+    total[1] = Math.max(total[1], loggedAt);
+    total[2]++;
+  }
+
+  private static Timesheet newTimesheet(Key key, long[] total, long createdAt) {
+    Timesheet timesheet = new Timesheet(key.userId, key.workDate, total[0], total[1],
+        (int) total[2]);
+    timesheet.setCreatedAt(createdAt);
+    return timesheet;
+  }
+
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  @ToString
+  private static final class Key {
+
+    private final long userId;
+
+    private final LocalDate workDate;
+
+  }
+
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.UserImportReport;
+import org.opentna.data.model.UserImportReport.Failure;
+import org.opentna.data.model.entity.Role;
+import org.opentna.data.repository.RoleRepository;
+import org.opentna.data.repository.UserRepository;
+import org.opentna.data.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Imports users from a CSV roster, read one line at a time and written in JDBC batches committed
+ * per chunk, so the memory used does not grow with the size of the file.
+ *
+ * <p>The header names the columns, in any order. Only {@code username} is required:
+ *
+ * <ul>
+ *   <li>{@code password}, only used for new users, who are locked until a password is set
+ *   otherwise;</li>
+ *   <li>{@code enabled} and {@code must_change_password}, {@code true} or {@code false};</li>
+ *   <li>{@code roles} and {@code cards}, role names and card serial numbers separated by
+ *   {@code ;}, replacing all of the roles or cards of the user.</li>
+ * </ul>
+ *
+ * <p>An absent column, or an empty cell, leaves the attribute of an existing user as it is. Role
+ * names are resolved through a map loaded once, card serial numbers through the
+ * {@link CardIndex}. A card listed for another user is moved to the imported one. The written
+ * users are evicted from the second-level cache once a chunk commits.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class UserImporter {
+
+  private static final String INSERT_USER_SQL = "INSERT INTO users"
+      + " (name, secret, must_change_secret, is_active, created_unix) VALUES (?, ?, ?, ?, ?)";
+
+  private static final String UPDATE_USER_SQL = "UPDATE users"
+      + " SET must_change_secret = ?, is_active = ?, modified_unix = ? WHERE id = ?";
+
+  private static final String DELETE_ROLES_SQL =
+      "DELETE FROM related_users_roles WHERE user_id = ?";
+
+  private static final String INSERT_ROLE_SQL =
+      "INSERT INTO related_users_roles (user_id, role_id) VALUES (?, ?)";
+
+  private static final String DELETE_CARDS_SQL =
+      "DELETE FROM related_users_proximity_cards WHERE user_id = ?";
+
+  private static final String DELETE_CARD_OWNER_SQL =
+      "DELETE FROM related_users_proximity_cards WHERE card_id = ?";
+
+  private static final String INSERT_CARD_SQL =
+      "INSERT INTO related_users_proximity_cards (user_id, card_id) VALUES (?, ?)";
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private RoleRepository roleRepository;
+
+  @Autowired
+  private CardIndex cardIndex;
+
+  @Autowired
+  private CredentialCache credentialCache;
+
+  @Autowired
+  private UsernameIndex usernameIndex;
+
+  @Autowired
+  private SecondLevelCache secondLevelCache;
+
+  @Autowired
+  private PasswordHasher passwordHasher;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  @Lazy
+  private UserService userService;
+
+  @Value("${opentna.users.import.chunk-size:500}")
+  private int chunkSize;
+
+  @Value("${opentna.users.import.max-failures:1000}")
+  private int maxFailures;
+
+  /**
+   * Imports the users of a CSV roster, must not be called within a transaction.
+   *
+   * @param in the UTF-8 encoded CSV, not closed
+   * @param disableMissing whether to disable the enabled users left out of the roster, skipped if
+   *     any row failed
+   * @return the import report
+   * @throws IllegalArgumentException if the header is missing or has no username column
+   */
+  public UserImportReport importUsers(InputStream in, boolean disableMissing) {
+    UserImportReport report = new UserImportReport();
+    ConcurrentBitSet seen = new ConcurrentBitSet();
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+          StandardCharsets.UTF_8));
+      String header = reader.readLine();
+      if (header == null) {
+        throw new IllegalArgumentException("The header is missing");
+      }
+      Map<String, Integer> columns = new HashMap<>();
+      List<String> names = split(header);
+      for (int i = 0; i < names.size(); i++) {
+        columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+      }
+      if (!columns.containsKey("username")) {
+        throw new IllegalArgumentException("The username column is required");
+      }
+      Map<String, Long> roleIds = new HashMap<>();
+      for (Role role : roleRepository.findAll()) {
+        roleIds.put(role.getName(), role.getId());
+      }
+      List<Row> chunk = new ArrayList<>(chunkSize);
+      Set<String> usernames = new HashSet<>();
+      long line = 1;
+      String text;
+      while ((text = reader.readLine()) != null) {
+        line++;
+        if (text.trim().isEmpty()) {
+          continue;
+        }
+        Row row = new Row(line);
+        try {
+          parse(row, split(text), columns, roleIds);
+        } catch (IllegalArgumentException e) {
+          fail(report, row, e.getMessage());
+          continue;
+        }
+        if (!usernames.add(row.username)) {
+          fail(report, row, "Duplicate username in the chunk");
+          continue;
+        }
+        chunk.add(row);
+        if (chunk.size() == chunkSize) {
+          importChunk(chunk, report, seen);
+          chunk.clear();
+          usernames.clear();
+        }
+      }
+      if (!chunk.isEmpty()) {
+        importChunk(chunk, report, seen);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (disableMissing && report.getFailed() == 0) {
+      List<Long> missing = new ArrayList<>();
+      for (Long userId : userRepository.findAllEnabledId()) {
+        if (!seen.get(userId)) {
+          missing.add(userId);
+        }
+      }
+      report.setDisabled(missing.isEmpty() ? 0 : userService.updateEnabled(missing, false));
+    }
+    log.info(String.format("Imported, created=%s, updated=%s, unchanged=%s, disabled=%s, "
+        + "failed=%s", report.getCreated(), report.getUpdated(), report.getUnchanged(),
+        report.getDisabled(), report.getFailed()));
+    return report;
+  }
+
+  private void importChunk(List<Row> chunk, UserImportReport report, ConcurrentBitSet seen) {
+    try {
+      apply(chunk, report, seen);
+    } catch (DataIntegrityViolationException e) {
+      // one conflicting row rolls back the whole chunk, so retries them one at a time
+      log.warn(String.format("Chunk failed, size=%s: %s", chunk.size(), e.getMessage()));
+      for (Row row : chunk) {
+        List<Row> single = new ArrayList<>(1);
+        single.add(row);
+        try {
+          apply(single, report, seen);
+        } catch (DataIntegrityViolationException ex) {
+          fail(report, row, ex.getMostSpecificCause().getMessage());
+        }
+      }
+    }
+  }
+
+  private void apply(List<Row> rows, UserImportReport report, ConcurrentBitSet seen) {
+    Map<String, Row> byUsername = new HashMap<>();
+    for (Row row : rows) {
+      row.id = null;
+      byUsername.put(row.username, row);
+    }
+    for (Object[] state : userRepository.findAllIdAndStateByUsernameIn(byUsername.keySet())) {
+      Row row = byUsername.get((String) state[1]);
+      if (row != null) {
+        row.id = (Long) state[0];
+        row.wasEnabled = (Boolean) state[2];
+        row.wasMustChangePassword = (Boolean) state[3];
+      }
+    }
+    // hashes before the transaction starts, no connection is held meanwhile, and keeps the
+    // hashes for the rows retried one at a time
+    List<Row> hashed = new ArrayList<>();
+    List<String> passwords = new ArrayList<>();
+    for (Row row : rows) {
+      if (row.id == null && row.password != null && row.encodedPassword == null) {
+        hashed.add(row);
+        passwords.add(row.password);
+      }
+    }
+    if (!hashed.isEmpty()) {
+      List<String> hashes = passwordHasher.encodeAll(passwords);
+      for (int i = 0; i < hashed.size(); i++) {
+        hashed.get(i).encodedPassword = hashes.get(i);
+      }
+    }
+    List<Row> rejected = new ArrayList<>();
+    List<Object[]> inserts = new ArrayList<>();
+    for (Row row : rows) {
+      if (row.id != null && seen.get(row.id)) {
+        rejected.add(row);
+      } else if (row.id == null) {
+        inserts.add(new Object[] {row.username,
+            row.password == null ? PasswordHasher.LOCKED_SECRET : row.encodedPassword,
+            row.mustChangePassword == null ? row.password == null : row.mustChangePassword,
+            row.enabled == null || row.enabled, System.currentTimeMillis()});
+      }
+    }
+    List<Row> accepted = new ArrayList<>(rows);
+    accepted.removeAll(rejected);
+    long[] counts = new TransactionTemplate(transactionManager)
+        .execute(status -> write(accepted, byUsername, inserts));
+    for (Row row : rejected) {
+      fail(report, row, "Duplicate username in the roster");
+    }
+    for (Row row : accepted) {
+      seen.set(row.id, true);
+    }
+    report.setCreated(report.getCreated() + counts[0]);
+    report.setUpdated(report.getUpdated() + counts[1]);
+    report.setUnchanged(report.getUnchanged() + counts[2]);
+  }
+
+  /**
+   * Writes the rows of a chunk within a transaction.
+   *
+   * @return {@code [created, updated, unchanged]}
+   */
+  private long[] write(List<Row> rows, Map<String, Row> byUsername, List<Object[]> inserts) {
+    long now = System.currentTimeMillis();
+    List<Row> created = new ArrayList<>();
+    List<Long> existingIds = new ArrayList<>();
+    for (Row row : rows) {
+      row.isNew = row.id == null;
+      if (row.isNew) {
+        created.add(row);
+      } else {
+        existingIds.add(row.id);
+      }
+    }
+    if (!inserts.isEmpty()) {
+      jdbcTemplate.batchUpdate(INSERT_USER_SQL, inserts);
+      // batched generated keys are not reliable across drivers, reads them back instead
+      List<String> usernames = new ArrayList<>(created.size());
+      created.forEach(row -> usernames.add(row.username));
+      for (Object[] state : userRepository.findAllIdAndStateByUsernameIn(usernames)) {
+        Row row = byUsername.get((String) state[1]);
+        if (row != null) {
+          row.id = (Long) state[0];
+          row.wasEnabled = (Boolean) state[2];
+          row.wasMustChangePassword = (Boolean) state[3];
+        }
+      }
+    }
+    Map<Long, Set<Long>> currentRoles = new HashMap<>();
+    Map<Long, Set<Long>> currentCards = new HashMap<>();
+    if (!existingIds.isEmpty()) {
+      for (Object[] pair : userRepository.findAllRoleIdByIdIn(existingIds)) {
+        currentRoles.computeIfAbsent((Long) pair[0], key -> new HashSet<>()).add((Long) pair[1]);
+      }
+      for (Object[] pair : userRepository.findAllProximityCardIdByIdIn(existingIds)) {
+        currentCards.computeIfAbsent((Long) pair[0], key -> new HashSet<>()).add((Long) pair[1]);
+      }
+    }
+    List<Object[]> updates = new ArrayList<>();
+    List<Object[]> roleDeletes = new ArrayList<>();
+    List<Object[]> roleInserts = new ArrayList<>();
+    List<Object[]> cardDeletes = new ArrayList<>();
+    List<Object[]> cardOwnerDeletes = new ArrayList<>();
+    List<Object[]> cardInserts = new ArrayList<>();
+    Map<Long, Set<Long>> ownedCards = new HashMap<>();
+    Map<Long, Boolean> enabledStates = new HashMap<>();
+    Map<Long, String> createdUsernames = new HashMap<>();
+    List<Long> updatedIds = new ArrayList<>();
+    long[] counts = new long[3];
+    for (Row row : rows) {
+      boolean isNew = row.isNew;
+      boolean changed = false;
+      boolean enabled = row.enabled == null ? row.wasEnabled : row.enabled;
+      boolean mustChangePassword = row.mustChangePassword == null
+          ? row.wasMustChangePassword : row.mustChangePassword;
+      if (!isNew && (enabled != row.wasEnabled
+          || mustChangePassword != row.wasMustChangePassword)) {
+        updates.add(new Object[] {mustChangePassword, enabled, now, row.id});
+        changed = true;
+      }
+      if (row.roleIds != null
+          && !row.roleIds.equals(currentRoles.getOrDefault(row.id, new HashSet<>()))) {
+        if (!isNew) {
+          roleDeletes.add(new Object[] {row.id});
+        }
+        row.roleIds.forEach(roleId -> roleInserts.add(new Object[] {row.id, roleId}));
+        changed = true;
+      }
+      if (row.cardIds != null
+          && !row.cardIds.equals(currentCards.getOrDefault(row.id, new HashSet<>()))) {
+        if (!isNew) {
+          cardDeletes.add(new Object[] {row.id});
+        }
+        for (Long cardId : row.cardIds) {
+          cardOwnerDeletes.add(new Object[] {cardId});
+          cardInserts.add(new Object[] {row.id, cardId});
+        }
+        ownedCards.put(row.id, row.cardIds);
+        changed = true;
+      }
+      if (isNew || enabled != row.wasEnabled) {
+        enabledStates.put(row.id, enabled);
+      }
+      if (isNew) {
+        createdUsernames.put(row.id, row.username);
+        counts[0]++;
+      } else if (changed) {
+        updatedIds.add(row.id);
+        counts[1]++;
+      } else {
+        counts[2]++;
+      }
+    }
+    batchUpdate(UPDATE_USER_SQL, updates);
+    batchUpdate(DELETE_ROLES_SQL, roleDeletes);
+    batchUpdate(INSERT_ROLE_SQL, roleInserts);
+    batchUpdate(DELETE_CARDS_SQL, cardDeletes);
+    batchUpdate(DELETE_CARD_OWNER_SQL, cardOwnerDeletes);
+    batchUpdate(INSERT_CARD_SQL, cardInserts);
+    AfterCommit.run(() -> {
+      ownedCards.forEach(cardIndex::replaceOwnedCards);
+      enabledStates.forEach(cardIndex::updateUserEnabled);
+      credentialCache.invalidateAll(updatedIds);
+      secondLevelCache.evictUsers(updatedIds);
+      if (!cardOwnerDeletes.isEmpty()) {
+        // the previous owners of the moved cards are not known here
+        secondLevelCache.evictAllUserProximityCards();
+      }
+      createdUsernames.forEach(usernameIndex::put);
+    });
+    log.debug(String.format("Chunk, size=%s, created=%s, updated=%s", rows.size(), counts[0],
+        counts[1]));
+    return counts;
+  }
+
+  private void batchUpdate(String sql, List<Object[]> args) {
+    if (!args.isEmpty()) {
+      jdbcTemplate.batchUpdate(sql, args);
+    }
+  }
+
+  private void parse(Row row, List<String> fields, Map<String, Integer> columns,
+      Map<String, Long> roleIds) {
+    row.username = cell(fields, columns, "username");
+    if (row.username == null || row.username.length() < 2 || row.username.length() > 32) {
+      throw new IllegalArgumentException("The username must be 2 to 32 characters");
+    }
+    row.password = cell(fields, columns, "password");
+    row.enabled = parseBoolean(cell(fields, columns, "enabled"));
+    row.mustChangePassword = parseBoolean(cell(fields, columns, "must_change_password"));
+    String roles = cell(fields, columns, "roles");
+    if (roles != null) {
+      row.roleIds = new LinkedHashSet<>();
+      for (String name : roles.split(";")) {
+        if (!name.trim().isEmpty()) {
+          Long roleId = roleIds.get(name.trim());
+          if (roleId == null) {
+            throw new IllegalArgumentException("Unknown role " + name.trim());
+          }
+          row.roleIds.add(roleId);
+        }
+      }
+    }
+    String cards = cell(fields, columns, "cards");
+    if (cards != null) {
+      row.cardIds = new LinkedHashSet<>();
+      for (String serialNo : cards.split(";")) {
+        if (!serialNo.trim().isEmpty()) {
+          Long cardId = cardIndex.findCardId(serialNo.trim());
+          if (cardId == null) {
+            throw new IllegalArgumentException("Unknown card " + serialNo.trim());
+          }
+          row.cardIds.add(cardId);
+        }
+      }
+    }
+  }
+
+  private void fail(UserImportReport report, Row row, String message) {
+    report.setFailed(report.getFailed() + 1);
+    if (report.getFailures().size() < maxFailures) {
+      report.getFailures().add(new Failure(row.line, row.username, message));
+    }
+  }
+
+  private static String cell(List<String> fields, Map<String, Integer> columns, String column) {
+    Integer index = columns.get(column);
+    if (index == null || index >= fields.size()) {
+      return null;
+    }
+    String value = fields.get(index).trim();
+    return value.isEmpty() ? null : value;
+  }
+
+  private static Boolean parseBoolean(String value) {
+    if (value == null) {
+      return null;
+    }
+    if ("true".equalsIgnoreCase(value) || "1".equals(value)) {
+      return true;
+    }
+    if ("false".equalsIgnoreCase(value) || "0".equals(value)) {
+      return false;
+    }
+    throw new IllegalArgumentException("Invalid boolean " + value);
+  }
+
+  /**
+   * Splits a CSV line into its fields, unquoting the quoted ones. Quoted line breaks are not
+   * supported.
+   *
+   * @param line the line
+   * @return the fields
+   */
+  static List<String> split(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  private static final class Row {
+
+    private final long line;
+
+    private String username;
+
+    private String password;
+
+    private String encodedPassword;
+
+    private Boolean enabled;
+
+    private Boolean mustChangePassword;
+
+    private Set<Long> roleIds;
+
+    private Set<Long> cardIds;
+
+    private Long id;
+
+    private boolean isNew;
+
+    private boolean wasEnabled;
+
+    private boolean wasMustChangePassword;
+
+    private Row(long line) {
+      this.line = line;
+    }
+
+  }
+
+}
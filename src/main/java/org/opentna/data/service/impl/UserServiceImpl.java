@@ -16,22 +16,52 @@
 
 package org.opentna.data.service.impl;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.BaseEntity;
+import org.opentna.data.model.CountMode;
+import org.opentna.data.model.KeysetPage;
+import org.opentna.data.model.UserImportReport;
+import org.opentna.data.model.UserPatch;
+import org.opentna.data.model.UserPatch.Field;
+import org.opentna.data.model.UserSummary;
+import org.opentna.data.model.UsernameMatch;
+import org.opentna.data.model.entity.ProximityCard;
 import org.opentna.data.model.entity.User;
+import org.opentna.data.repository.ProximityCardRepository;
+import org.opentna.data.repository.RoleRepository;
 import org.opentna.data.repository.UserRepository;
 import org.opentna.data.service.UserNotFoundException;
 import org.opentna.data.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * An implementation of the user service.
  *
+ * <p>Passwords are hashed by the {@link PasswordHasher} before the transaction starts, so the
+ * writes taking a password open their transaction with a template instead of the transactional
+ * proxy. Called within a transaction, they join it as usual.
+ *
  * @author James Ho
  */
 @Service
@@ -39,22 +69,71 @@ import org.springframework.transaction.annotation.Transactional;
 @Slf4j
 public class UserServiceImpl implements UserService {
 
+  /**
+   * The maximum number of IDs in the IN list of a bulk update.
+   */
+  private static final int IN_LIST_SIZE = 1000;
+
   @Autowired
   private UserRepository userRepository;
 
+  @Autowired
+  private RoleRepository roleRepository;
+
+  @Autowired
+  private ProximityCardRepository proximityCardRepository;
+
+  @Autowired
+  private CardIndex cardIndex;
+
+  @Autowired
+  private PasswordHasher passwordHasher;
+
+  @Autowired
+  private CredentialCache credentialCache;
+
+  @Autowired
+  private UserImporter userImporter;
+
+  @Autowired
+  private UsernameIndex usernameIndex;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${opentna.users.max-page-size:1000}")
+  private int maxPageSize;
+
+  @Value("${opentna.users.count-ttl-ms:60000}")
+  private long countTtlMillis;
+
+  @Value("${opentna.users.search.max-results:50}")
+  private int maxSearchResults;
+
+  /**
+   * The cached count of users and the time it was taken, {@code [count, countedAt]}.
+   */
+  private volatile long[] cachedCount;
+
   @Override
-  @Transactional(propagation = Propagation.REQUIRED)
   public User createUser(@Valid User user) {
     User entity = new User();
     entity.setUsername(user.getUsername());
     entity.setPassword(encodePassword(user.getPassword()));
     entity.setMustChangePassword(user.isMustChangePassword());
     entity.setEnabled(user.isEnabled());
-    entity.setRoles(user.getRoles());
-    entity.setProximityCards(user.getProximityCards());
     entity.setCreatedAt(System.currentTimeMillis());
     log.debug(String.format("%s", entity.toString()));
-    return userRepository.save(entity);
+    return new TransactionTemplate(transactionManager).execute(status -> {
+      // persisting cascades to the associations, so the given ones, e.g. the detached copies
+      // returned by the card service, are replaced by managed entities
+      entity.setRoles(resolve(user.getRoles(), roleRepository));
+      entity.setProximityCards(resolve(user.getProximityCards(), proximityCardRepository));
+      User saved = userRepository.save(entity);
+      indexProximityCards(saved);
+      AfterCommit.run(() -> usernameIndex.put(saved.getId(), saved.getUsername()));
+      return saved;
+    });
   }
 
   @Override
@@ -64,7 +143,7 @@ public class UserServiceImpl implements UserService {
 
   @Override
   public User loadUserByUsername(String username) {
-    return userRepository.findByUsername(username).orElse(null);
+    return userRepository.findByNaturalId(username).orElse(null);
   }
 
   @Override
@@ -73,41 +152,215 @@ public class UserServiceImpl implements UserService {
   }
 
   @Override
-  @Transactional(propagation = Propagation.REQUIRED)
+  public KeysetPage<User> loadAllUserById(String pageToken, int size, CountMode countMode) {
+    checkPageSize(size);
+    KeysetPage<User> page = KeysetPage.of(
+        userRepository.findAllAfterId(seekId(pageToken), PageRequest.of(0, size + 1)),
+        size, user -> new Object[] {user.getId()});
+    page.setTotalElements(count(countMode));
+    return page;
+  }
+
+  @Override
+  public KeysetPage<User> loadAllUserByUsername(String pageToken, int size,
+      CountMode countMode) {
+    checkPageSize(size);
+    Object[] seek = seekUsername(pageToken);
+    KeysetPage<User> page = KeysetPage.of(
+        userRepository.findAllAfterUsername((String) seek[1], (Long) seek[0],
+            PageRequest.of(0, size + 1)),
+        size, user -> new Object[] {user.getId(), user.getUsername()});
+    page.setTotalElements(count(countMode));
+    return page;
+  }
+
+  @Override
+  public Page<UserSummary> loadAllUserSummaryByPaginated(Pageable pageable) {
+    return userRepository.findAllSummaries(pageable);
+  }
+
+  @Override
+  public KeysetPage<UserSummary> loadAllUserSummaryById(String pageToken, int size,
+      CountMode countMode) {
+    checkPageSize(size);
+    KeysetPage<UserSummary> page = KeysetPage.of(
+        userRepository.findSummariesAfterId(seekId(pageToken), PageRequest.of(0, size + 1)),
+        size, user -> new Object[] {user.getId()});
+    page.setTotalElements(count(countMode));
+    return page;
+  }
+
+  @Override
+  public KeysetPage<UserSummary> loadAllUserSummaryByUsername(String pageToken, int size,
+      CountMode countMode) {
+    checkPageSize(size);
+    Object[] seek = seekUsername(pageToken);
+    KeysetPage<UserSummary> page = KeysetPage.of(
+        userRepository.findSummariesAfterUsername((String) seek[1], (Long) seek[0],
+            PageRequest.of(0, size + 1)),
+        size, user -> new Object[] {user.getId(), user.getUsername()});
+    page.setTotalElements(count(countMode));
+    return page;
+  }
+
+  @Override
   public User updateUser(@Valid User user) {
     long userId = user.getId();
     if (userId < 1) {
       throw new IllegalArgumentException("Invalid user ID");
     }
-    User original = loadUserById(userId);
-    if (original == null) {
-      throw new UserNotFoundException(userId);
-    }
-    original.setUsername(user.getUsername());
-    original.setPassword(encodePassword(user.getPassword()));
-    original.setMustChangePassword(user.isMustChangePassword());
-    original.setEnabled(user.isEnabled());
-    original.setLastModifiedAt(System.currentTimeMillis());
-    original.setRoles(user.getRoles());
-    original.setProximityCards(user.getProximityCards());
-    log.debug(String.format("%s", user));
-    return userRepository.save(user);
+    String password = encodePassword(user.getPassword());
+    return new TransactionTemplate(transactionManager).execute(status -> {
+      User original = loadUserById(userId);
+      if (original == null) {
+        throw new UserNotFoundException(userId);
+      }
+      original.setUsername(user.getUsername());
+      original.setPassword(password);
+      original.setMustChangePassword(user.isMustChangePassword());
+      original.setEnabled(user.isEnabled());
+      original.setLastModifiedAt(System.currentTimeMillis());
+      // resolves the given associations to managed entities instead of merging them
+      original.setRoles(resolve(user.getRoles(), roleRepository));
+      original.setProximityCards(resolve(user.getProximityCards(), proximityCardRepository));
+      log.debug(String.format("%s", user));
+      userRepository.flush();
+      indexProximityCards(original);
+      String username = original.getUsername();
+      AfterCommit.run(() -> {
+        credentialCache.invalidate(userId);
+        usernameIndex.put(userId, username);
+      });
+      return original;
+    });
   }
 
   @Override
-  @Transactional(propagation = Propagation.REQUIRED)
-  public void changePassword(long userId, String password) {
+  public User patchUser(long userId, @Valid UserPatch patch) {
     if (userId < 1) {
       throw new IllegalArgumentException("Invalid user ID");
     }
+    String password = null;
+    if (patch.isDirty(Field.PASSWORD)) {
+      if (patch.getPassword() == null) {
+        throw new IllegalArgumentException("The password is required");
+      }
+      password = encodePassword(patch.getPassword());
+    }
+    String encodedPassword = password;
+    return new TransactionTemplate(transactionManager)
+        .execute(status -> applyPatch(userId, patch, encodedPassword));
+  }
+
+  private User applyPatch(long userId, UserPatch patch, String encodedPassword) {
     User user = loadUserById(userId);
     if (user == null) {
       throw new UserNotFoundException(userId);
     }
-    user.setPassword(encodePassword(password));
+    boolean updates = false;
+    boolean enabled = user.isEnabled();
+    if (patch.isDirty(Field.USERNAME) && !Objects.equals(user.getUsername(), patch.getUsername())) {
+      if (patch.getUsername() == null) {
+        throw new IllegalArgumentException("The username is required");
+      }
+      String username = patch.getUsername();
+      user.setUsername(username);
+      AfterCommit.run(() -> usernameIndex.put(userId, username));
+      updates = true;
+    }
+    if (encodedPassword != null) {
+      user.setPassword(encodedPassword);
+      updates = true;
+    }
+    if (patch.isDirty(Field.MUST_CHANGE_PASSWORD) && patch.getMustChangePassword() != null
+        && user.isMustChangePassword() != patch.getMustChangePassword()) {
+      user.setMustChangePassword(patch.getMustChangePassword());
+      updates = true;
+    }
+    if (patch.isDirty(Field.ENABLED) && patch.getEnabled() != null
+        && user.isEnabled() != patch.getEnabled()) {
+      user.setEnabled(patch.getEnabled());
+      updates = true;
+    }
+    if (patch.isDirty(Field.ROLES)) {
+      user.setRoles(resolve(patch.getRoles(), roleRepository));
+      updates = true;
+    }
+    if (patch.isDirty(Field.PROXIMITY_CARDS)) {
+      user.setProximityCards(resolve(patch.getProximityCards(), proximityCardRepository));
+      updates = true;
+    }
+    if (!updates) {
+      log.debug("No changes");
+      return user;
+    }
+    // the user is managed, its changed columns are flushed on commit without a merge
     user.setLastModifiedAt(System.currentTimeMillis());
-    log.debug(String.format("%s", user));
-    userRepository.save(user);
+    AfterCommit.run(() -> credentialCache.invalidate(userId));
+    log.debug(String.format("%s, fields=%s", user, patch.getDirtyFields()));
+    if (patch.isDirty(Field.PROXIMITY_CARDS)) {
+      userRepository.flush();
+      indexProximityCards(user);
+    } else if (enabled != user.isEnabled()) {
+      boolean state = user.isEnabled();
+      AfterCommit.run(() -> cardIndex.updateUserEnabled(userId, state));
+    }
+    return user;
+  }
+
+  @Override
+  public void changePassword(long userId, String password) {
+    if (userId < 1) {
+      throw new IllegalArgumentException("Invalid user ID");
+    }
+    String encodedPassword = encodePassword(password);
+    new TransactionTemplate(transactionManager).execute(status -> {
+      User user = loadUserById(userId);
+      if (user == null) {
+        throw new UserNotFoundException(userId);
+      }
+      user.setPassword(encodedPassword);
+      user.setLastModifiedAt(System.currentTimeMillis());
+      log.debug(String.format("%s", user));
+      AfterCommit.run(() -> credentialCache.invalidate(userId));
+      return userRepository.save(user);
+    });
+  }
+
+  @Override
+  public boolean verifyPassword(String username, String password) {
+    if (username == null || password == null) {
+      return false;
+    }
+    if (credentialCache.contains(username, password)) {
+      return true;
+    }
+    long generation = credentialCache.generation();
+    User user = loadUserByUsername(username);
+    if (user == null || !user.isEnabled()) {
+      // as slow as a mismatch, so that the time taken does not tell whether the user exists
+      passwordHasher.mismatch(password);
+      return false;
+    }
+    boolean matches = passwordHasher.matches(password, user.getPassword());
+    if (matches && !PasswordHasher.isEncoded(user.getPassword())) {
+      rehashPassword(user.getId(), user.getPassword(), password);
+    }
+    if (matches) {
+      credentialCache.put(generation, user.getId(), username, password);
+    }
+    return matches;
+  }
+
+  /**
+   * Replaces a plaintext secret saved before passwords were hashed with its hash, unless the
+   * secret changed meanwhile.
+   */
+  private void rehashPassword(long userId, String secret, String password) {
+    String encodedPassword = passwordHasher.encode(password);
+    int updated = new TransactionTemplate(transactionManager).execute(status ->
+        userRepository.updatePasswordByIdAndPassword(userId, secret, encodedPassword));
+    log.info(String.format("Rehashed a plaintext secret, userId=%s, updated=%s", userId, updated));
   }
 
   @Override
@@ -138,11 +391,151 @@ public class UserServiceImpl implements UserService {
     user.setEnabled(state);
     user.setLastModifiedAt(System.currentTimeMillis());
     userRepository.save(user);
+    AfterCommit.run(() -> {
+      cardIndex.updateUserEnabled(userId, state);
+      credentialCache.invalidate(userId);
+    });
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRED)
+  public int updateEnabled(Collection<Long> userIds, boolean state) {
+    List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+    if (ids.stream().anyMatch(id -> id == null || id < 1)) {
+      throw new IllegalArgumentException("Invalid user ID");
+    }
+    long now = System.currentTimeMillis();
+    int updated = 0;
+    for (int i = 0; i < ids.size(); i += IN_LIST_SIZE) {
+      updated += userRepository.updateEnabledByIdIn(
+          ids.subList(i, Math.min(i + IN_LIST_SIZE, ids.size())), state, now);
+    }
+    log.debug(String.format("size=%s, state=%s, updated=%s", ids.size(), state, updated));
+    AfterCommit.run(() -> {
+      ids.forEach(id -> cardIndex.updateUserEnabled(id, state));
+      credentialCache.invalidateAll(ids);
+    });
+    return updated;
+  }
+
+  @Override
+  public List<UsernameMatch> searchByUsernamePrefix(String prefix, int limit) {
+    if (prefix == null) {
+      throw new IllegalArgumentException("The prefix is required");
+    }
+    if (limit < 1 || limit > maxSearchResults) {
+      throw new IllegalArgumentException("Invalid limit");
+    }
+    return usernameIndex.search(prefix, limit);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public UserImportReport importUsers(InputStream in, boolean disableMissing) {
+    return userImporter.importUsers(in, disableMissing);
+  }
+
+  private void checkPageSize(int size) {
+    if (size < 1 || size > maxPageSize) {
+      throw new IllegalArgumentException("Invalid page size");
+    }
+  }
+
+  private static long seekId(String pageToken) {
+    return pageToken == null ? 0L : Long.parseLong(KeysetPage.decodeToken(pageToken, 1)[0]);
+  }
+
+  /**
+   * Decodes the seek position of a listing by username.
+   *
+   * @param pageToken the page token, null for the first page
+   * @return {@code [id, username]}
+   */
+  private static Object[] seekUsername(String pageToken) {
+    if (pageToken == null) {
+      // usernames are never empty, so seeking from (0, '') starts at the first user
+      return new Object[] {0L, ""};
+    }
+    // the username may contain ':', so it is the last key
+    String[] keys = KeysetPage.decodeToken(pageToken, 2);
+    return new Object[] {Long.parseLong(keys[0]), keys[1]};
+  }
+
+  private Long count(CountMode countMode) {
+    if (countMode == null) {
+      return null;
+    }
+    switch (countMode) {
+      case EXACT:
+        return userRepository.count();
+      case APPROXIMATE:
+        long[] cached = cachedCount;
+        long now = System.currentTimeMillis();
+        if (cached == null || now - cached[1] >= countTtlMillis) {
+          cached = new long[] {userRepository.count(), now};
+          cachedCount = cached;
+        }
+        return cached[0];
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Replaces the given entities with their managed instances, loaded with a single query. New
+   * entities, without an ID, are kept to be created by the cascade.
+   */
+  private static <T extends BaseEntity> Set<T> resolve(Set<T> entities,
+      JpaRepository<T, Long> repository) {
+    if (entities == null) {
+      return null;
+    }
+    Set<T> resolved = new HashSet<>();
+    Set<Long> ids = new HashSet<>();
+    for (T entity : entities) {
+      if (entity.getId() == null) {
+        resolved.add(entity);
+      } else {
+        ids.add(entity.getId());
+      }
+    }
+    if (!ids.isEmpty()) {
+      List<T> managed = repository.findAllById(ids);
+      if (managed.size() != ids.size()) {
+        throw new IllegalArgumentException("Unknown ID in " + ids);
+      }
+      resolved.addAll(managed);
+    }
+    return resolved;
+  }
+
+  private void indexProximityCards(User user) {
+    // collects the cards while the session is still open, the index only changes on commit
+    Map<Long, String> cards = new HashMap<>();
+    Set<Long> enabledCards = new HashSet<>();
+    if (user.getProximityCards() != null) {
+      for (ProximityCard card : user.getProximityCards()) {
+        cards.put(card.getId(), card.getSerialNo());
+        if (card.isEnabled()) {
+          enabledCards.add(card.getId());
+        }
+      }
+    }
+    long userId = user.getId();
+    boolean enabled = user.isEnabled();
+    AfterCommit.run(() -> {
+      cards.forEach((cardId, serialNo) ->
+          cardIndex.putCard(cardId, serialNo, enabledCards.contains(cardId)));
+      cardIndex.replaceOwnedCards(userId, cards.keySet());
+      cardIndex.updateUserEnabled(userId, enabled);
+    });
   }
 
-  // TODO: encode password, using PasswordEncoder
   private String encodePassword(String password) {
-    return password;
+    if (password == null) {
+      throw new IllegalArgumentException("The password is required");
+    }
+    return passwordHasher.encode(password);
   }
 
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.opentna.data.model.UsernameMatch;
+import org.opentna.data.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * An in-memory index of usernames for prefix searches, a sorted map from the lower-cased username
+ * to the user, so that the users matching a prefix are a contiguous range of keys.
+ *
+ * <p>Loaded at startup and kept in sync by the user service once its writes commit. Renames made
+ * by other nodes are picked up by a periodic reload, read without holding the lock and swapped in
+ * only if no local write overlapped it, otherwise left to the next reload.
+ *
+ * @author James Ho
+ */
+@Component
+@Slf4j
+public class UsernameIndex {
+
+  @Autowired
+  private UserRepository userRepository;
+
+  /**
+   * The lower-cased username followed by {@code '\0'} and the user ID, unique even where two
+   * usernames differ by case only, to the user.
+   */
+  private volatile ConcurrentNavigableMap<String, UsernameMatch> users =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * The user ID to its key in {@link #users}.
+   */
+  private volatile ConcurrentMap<Long, String> keys = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented by every local write, to detect the writes overlapping a reload.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Rebuilds the index from the database, swapping it in once complete.
+   */
+  @PostConstruct
+  @Scheduled(fixedDelayString = "${opentna.users.search.refresh-ms:300000}",
+      initialDelayString = "${opentna.users.search.refresh-ms:300000}")
+  public void load() {
+    long started = generation.get();
+    ConcurrentNavigableMap<String, UsernameMatch> users = new ConcurrentSkipListMap<>();
+    ConcurrentMap<Long, String> keys = new ConcurrentHashMap<>();
+    for (Object[] row : userRepository.findAllIdAndUsername()) {
+      Long userId = (Long) row[0];
+      String username = (String) row[1];
+      String key = key(userId, username);
+      users.put(key, new UsernameMatch(userId, username));
+      keys.put(userId, key);
+    }
+    synchronized (this) {
+      if (generation.get() != started) {
+        log.debug("Written while loading, left to the next reload");
+        return;
+      }
+      this.users = users;
+      this.keys = keys;
+    }
+    log.debug(String.format("Loaded, users=%s", users.size()));
+  }
+
+  /**
+   * Retrieves the first users whose username starts with the given prefix, ignoring case.
+   *
+   * @param prefix the username prefix
+   * @param limit the maximum number of users
+   * @return a list of matching user, ordered by username
+   */
+  public List<UsernameMatch> search(String prefix, int limit) {
+    String from = prefix.toLowerCase(Locale.ROOT);
+    List<UsernameMatch> matches = new ArrayList<>(Math.min(limit, 16));
+    for (Map.Entry<String, UsernameMatch> entry : users.tailMap(from).entrySet()) {
+      if (matches.size() >= limit || !entry.getKey().startsWith(from)) {
+        break;
+      }
+      UsernameMatch match = entry.getValue();
+      matches.add(new UsernameMatch(match.getId(), match.getUsername()));
+    }
+    return matches;
+  }
+
+  /**
+   * Indexes a user, replacing the previous username of the user if any.
+   *
+   * @param userId the user ID
+   * @param username the username
+   */
+  public synchronized void put(long userId, String username) {
+    generation.incrementAndGet();
+    String key = key(userId, username);
+    String previous = keys.put(userId, key);
+    if (previous != null && !previous.equals(key)) {
+      users.remove(previous);
+    }
+    users.put(key, new UsernameMatch(userId, username));
+  }
+
+  private static String key(long userId, String username) {
+    return username.toLowerCase(Locale.ROOT) + '\0' + userId;
+  }
+
+}
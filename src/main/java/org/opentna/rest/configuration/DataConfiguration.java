@@ -16,10 +16,18 @@
 
 package org.opentna.rest.configuration;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.opentna.data.repository.SimpleNaturalIdRepository;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * The data configuration.
@@ -28,8 +36,37 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
  */
 @Configuration
 @EntityScan("org.opentna.data.model.entity")
-@EnableJpaRepositories(basePackages = {"org.opentna.data.repository"})
+@EnableJpaRepositories(
+    basePackages = {"org.opentna.data.repository"},
+    repositoryBaseClass = SimpleNaturalIdRepository.class
+)
 @ComponentScan(basePackages = {"org.opentna.data.service"})
+@EnableScheduling
+@EnableCaching
 public class DataConfiguration {
 
+  private static final String JCACHE_URI = "hibernate.javax.cache.uri";
+
+  /**
+   * Resolves a {@code classpath:} location of the second-level cache configuration, which
+   * Hibernate hands over to the JCache provider as a plain URI.
+   *
+   * @param resourceLoader the resource loader
+   * @return the customizer of the Hibernate properties
+   */
+  @Bean
+  public HibernatePropertiesCustomizer jcacheUriCustomizer(ResourceLoader resourceLoader) {
+    return properties -> {
+      Object uri = properties.get(JCACHE_URI);
+      if (uri instanceof String && ((String) uri).startsWith(ResourceLoader.CLASSPATH_URL_PREFIX)) {
+        try {
+          properties.put(JCACHE_URI,
+              resourceLoader.getResource((String) uri).getURI().toString());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
 }
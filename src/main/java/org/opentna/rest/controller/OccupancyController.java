@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.rest.controller;
+
+import java.util.Collection;
+import org.opentna.data.model.Occupant;
+import org.opentna.data.service.OccupancyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The REST controller of the users on site, answered from memory.
+ *
+ * @author James Ho
+ */
+@RestController
+@RequestMapping("/occupancy")
+public class OccupancyController {
+
+  @Autowired
+  private OccupancyService occupancyService;
+
+  @GetMapping
+  public Collection<Occupant> list() {
+    return occupancyService.loadOccupants();
+  }
+
+  @GetMapping("/count")
+  public int count() {
+    return occupancyService.countOccupants();
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.rest.controller;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import javax.servlet.http.HttpServletResponse;
+import org.opentna.data.service.RecordExportFormat;
+import org.opentna.data.service.RecordService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The REST controller of attendance records.
+ *
+ * @author James Ho
+ */
+@RestController
+@RequestMapping("/records")
+public class RecordController {
+
+  @Autowired
+  private RecordService recordService;
+
+  /**
+   * Streams every attendance record logged within the given range, as NDJSON or CSV.
+   *
+   * @param from the inclusive lower bound of the logged time
+   * @param to the exclusive upper bound of the logged time
+   * @param format the export format
+   * @param response the HTTP response, written to directly
+   */
+  @GetMapping("/export")
+  public void export(@RequestParam("from") long from, @RequestParam("to") long to,
+      @RequestParam(name = "format", defaultValue = "NDJSON") RecordExportFormat format,
+      HttpServletResponse response) throws IOException {
+    response.setContentType(format.getContentType());
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, String.format(
+        "attachment; filename=\"attendance-%s-%s.%s\"", from, to, format.getExtension()));
+    recordService.exportAttendances(from, to, format, response.getOutputStream());
+  }
+
+  /**
+   * Rebuilds the daily timesheets of the given dates from the attendance records.
+   *
+   * @param from the first local date
+   * @param to the last local date, inclusive
+   * @return the number of rebuilt timesheets
+   */
+  @PostMapping("/timesheets/rebuild")
+  public int rebuildTimesheets(
+      @RequestParam("from") @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+      @RequestParam("to") @DateTimeFormat(iso = ISO.DATE) LocalDate to) {
+    return recordService.rebuildTimesheets(from, to);
+  }
+
+}
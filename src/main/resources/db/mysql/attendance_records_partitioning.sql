@@ -0,0 +1,24 @@
+-- One-time conversion of attendance_records to monthly RANGE partitions on logged_unix.
+--
+-- MySQL requires the partitioning column in every unique key of a partitioned table, and
+-- partitioned InnoDB tables cannot have foreign keys. Drop the foreign keys generated by
+-- Hibernate first, listed by:
+--
+--   SELECT CONSTRAINT_NAME FROM information_schema.REFERENTIAL_CONSTRAINTS
+--   WHERE CONSTRAINT_SCHEMA = DATABASE() AND TABLE_NAME = 'attendance_records';
+--
+--   ALTER TABLE attendance_records DROP FOREIGN KEY <CONSTRAINT_NAME>;
+--
+-- Hibernate would add them back on startup, so set spring.jpa.hibernate.ddl-auto=none once the
+-- table is partitioned. Adjust the first partition to the oldest month of the existing records,
+-- the scheduled maintenance (opentna.records.partitioning.enabled=true) splits pmax from then on.
+
+ALTER TABLE attendance_records
+  DROP PRIMARY KEY,
+  ADD PRIMARY KEY (id, logged_unix);
+
+ALTER TABLE attendance_records
+  PARTITION BY RANGE (logged_unix) (
+    PARTITION p201803 VALUES LESS THAN (1522540800000), -- 2018-04-01T00:00:00Z
+    PARTITION pmax VALUES LESS THAN MAXVALUE
+  );
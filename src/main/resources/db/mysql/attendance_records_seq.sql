@@ -0,0 +1,16 @@
+-- One-time seeding of attendance_records_seq, the table backing the pooled-lo generator of
+-- attendance_records.id on MySQL.
+--
+-- Hibernate creates the table with next_val = 1 on startup (spring.jpa.hibernate.ddl-auto=update),
+-- which collides with the rows inserted while the column was an IDENTITY. Run this with the
+-- application stopped, before deploying the pooled generator, or right after its first start and
+-- before any tap is recorded. Hibernate leaves an existing table as it is.
+
+CREATE TABLE IF NOT EXISTS attendance_records_seq (
+  next_val BIGINT
+) ENGINE = InnoDB;
+
+DELETE FROM attendance_records_seq;
+
+INSERT INTO attendance_records_seq (next_val)
+  SELECT COALESCE(MAX(id), 0) + 1 FROM attendance_records;
@@ -0,0 +1,17 @@
+-- One-time backfill of proximity_cards.serial_key, the numeric key of hex serial numbers.
+--
+-- Hibernate adds the column and its index on startup (spring.jpa.hibernate.ddl-auto=update),
+-- otherwise create them first:
+--
+--   ALTER TABLE proximity_cards
+--     ADD COLUMN serial_key BIGINT NULL,
+--     ADD INDEX idx_proximity_cards_serial_key (serial_key);
+--
+-- Serial numbers of 1 to 16 hex digits are read as unsigned 64-bit numbers and stored with the
+-- same two's complement bits as Long.parseUnsignedLong, anything else keeps a NULL key. Cards
+-- without a key are still found by serial number, so the backfill can run while taps are served.
+
+UPDATE proximity_cards
+  SET serial_key = CAST(CONV(serial_no, 16, 10) AS SIGNED)
+  WHERE serial_key IS NULL
+    AND serial_no REGEXP '^[0-9A-Fa-f]{1,16}$';
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentna.data.model.entity.Attendance;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.User;
+import org.opentna.data.service.RecordService;
+import org.opentna.data.service.UserService;
+import org.opentna.rest.RestApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compares the per-row attendance insert path with the batched one.
+ *
+ * <p>Runs against the test datasource by default, pass {@code -Dspring.datasource.url=...} to
+ * measure against a real MySQL server where the saved round trips actually show.
+ *
+ * @author James Ho
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AttendanceInsertBenchmark {
+
+  @Param({"100", "500"})
+  private int taps;
+
+  private ConfigurableApplicationContext context;
+
+  private RecordService recordService;
+
+  private User user;
+
+  private ProximityCard card;
+
+  private long loggedAt;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = new SpringApplicationBuilder(RestApplication.class)
+        .web(WebApplicationType.NONE)
+        .run();
+    recordService = context.getBean(RecordService.class);
+    card = new ProximityCard("bench-" + System.nanoTime(), "benchmark card", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    user = context.getBean(UserService.class).createUser(
+        new User("bench-" + System.nanoTime(), "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+    loggedAt = System.currentTimeMillis();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public void perRow() {
+    for (int i = 0; i < taps; i++) {
+      recordService.createAttendance(nextAttendance());
+    }
+  }
+
+  @Benchmark
+  public void batched() {
+    List<Attendance> attendances = new ArrayList<>(taps);
+    for (int i = 0; i < taps; i++) {
+      attendances.add(nextAttendance());
+    }
+    recordService.createAttendances(attendances);
+  }
+
+  private Attendance nextAttendance() {
+    Attendance attendance = new Attendance();
+    attendance.setUser(user);
+    attendance.setProximityCard(card);
+    attendance.setLoggedAt(loggedAt++);
+    return attendance;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(AttendanceInsertBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Measures the cost of a bcrypt hash and verification per strength, to tune
+ * {@code opentna.users.password.bcrypt-strength}.
+ *
+ * <p>Run it on the production hardware and pick the greatest strength whose verification stays
+ * within the login latency budget. The number of logins a node verifies per second is about the
+ * number of hasher threads divided by that time.
+ *
+ * @author James Ho
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+  @Param({"8", "10", "12"})
+  private int strength;
+
+  private BCryptPasswordEncoder encoder;
+
+  private String encodedPassword;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    encoder = new BCryptPasswordEncoder(strength);
+    encodedPassword = encoder.encode("correct horse battery staple");
+  }
+
+  @Benchmark
+  public String encode() {
+    return encoder.encode("correct horse battery staple");
+  }
+
+  @Benchmark
+  public boolean matches() {
+    return encoder.matches("correct horse battery staple", encodedPassword);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PasswordHashBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+}
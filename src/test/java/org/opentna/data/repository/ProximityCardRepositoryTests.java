@@ -18,6 +18,7 @@ package org.opentna.data.repository;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import javax.persistence.EntityManager;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -40,6 +41,9 @@ public class ProximityCardRepositoryTests {
   @Autowired
   private ProximityCardRepository repository;
 
+  @Autowired
+  private EntityManager entityManager;
+
   private ProximityCard card;
 
   private final String cardSerialNo = "111111111";
@@ -50,6 +54,7 @@ public class ProximityCardRepositoryTests {
   public void test() {
     create();
     findBySerialNo();
+    findBySerialNoWithoutKey();
     update();
     delete();
   }
@@ -71,6 +76,18 @@ public class ProximityCardRepositoryTests {
     assertThat(entity.getSerialNo()).isEqualTo(cardSerialNo);
     assertThat(entity.getDescription()).isEqualTo(cardDescription);
     assertThat(entity.isEnabled()).isEqualTo(cardEnabled);
+    assertThat(entity.getSerialKey()).isEqualTo(0x111111111L);
+    assertThat(repository.findBySerialNoOrKey(cardSerialNo, false).orElse(null)).isEqualTo(entity);
+  }
+
+  private void findBySerialNoWithoutKey() {
+    // a card saved before the numeric key was introduced, not backfilled yet
+    entityManager.createNativeQuery("UPDATE proximity_cards SET serial_key = NULL WHERE id = ?")
+        .setParameter(1, card.getId()).executeUpdate();
+    entityManager.clear();
+    assertThat(repository.findBySerialNoOrKey(cardSerialNo, false)).isEmpty();
+    assertThat(repository.findBySerialNoOrKey(cardSerialNo, true).get().getId())
+        .isEqualTo(card.getId());
   }
 
   private void update() {
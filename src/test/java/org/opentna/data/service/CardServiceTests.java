@@ -17,29 +17,57 @@
 package org.opentna.data.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import javax.persistence.EntityManagerFactory;
 import javax.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opentna.data.model.CardProvisionResult;
+import org.opentna.data.model.CardProvisionResult.Status;
 import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.User;
+import org.opentna.data.service.impl.CardIndex;
 import org.opentna.rest.RestApplication;
 import org.opentna.rest.configuration.DataConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit4.SpringRunner;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = {RestApplication.class})
 @Import(DataConfiguration.class)
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
 @Slf4j
 public class CardServiceTests {
 
   @Autowired
   private CardService cardService;
 
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private CardIndex cardIndex;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
   @Test
   public void test001() {
     // testing for a correct serial number
@@ -129,4 +157,221 @@ public class CardServiceTests {
     assertThat(original).isEqualTo(card);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void test011() {
+    // testing for the card lookups served from the cache until an update commits
+    ProximityCard card = cardService.createProximityCard(
+        new ProximityCard("0000000011", "card #11", true));
+    cardService.loadProximityCardBySerialNo("0000000011");
+    cardService.loadProximityCardById(card.getId());
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    ProximityCard cached = cardService.loadProximityCardBySerialNo("0000000011");
+    assertThat(cardService.loadProximityCardById(card.getId())).isEqualTo(cached);
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+
+    // modifying a returned card leaves the cached one as it is
+    cached.setDescription("modified by the caller");
+    assertThat(cardService.loadProximityCardBySerialNo("0000000011"))
+        .hasFieldOrPropertyWithValue("description", "card #11");
+
+    ProximityCard update = new ProximityCard("0000000011", "card #11 (updated)", true);
+    update.setId(card.getId());
+    cardService.update(update);
+    assertThat(cardService.loadProximityCardBySerialNo("0000000011"))
+        .hasFieldOrPropertyWithValue("description", "card #11 (updated)");
+    assertThat(cardService.loadProximityCardById(card.getId()))
+        .hasFieldOrPropertyWithValue("description", "card #11 (updated)");
+  }
+
+  @Test
+  public void test012() {
+    // testing for an unknown serial number rejected without a stack trace
+    try {
+      cardService.loadProximityCardBySerialNo("0000000012");
+      fail("Expected an UnknownCardException");
+    } catch (UnknownCardException e) {
+      assertThat(e.getStackTrace()).isEmpty();
+    }
+  }
+
+  @Test
+  public void test013() {
+    // testing for the owner of a card without owner
+    cardService.createProximityCard(new ProximityCard("0000000014", "card #14", true));
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000014")).isNull();
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000014")).isNull();
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void test014() {
+    // testing for bulk provisioning with a per-card result
+    List<ProximityCard> cards = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      cards.add(new ProximityCard(String.format("bulk%06d", i), "bulk card", true));
+    }
+    cards.add(new ProximityCard("bulk000001", "duplicate in the request", true));
+    cards.add(new ProximityCard("0123456789", "duplicate in the database", true));
+    cards.add(new ProximityCard("", "invalid", true));
+
+    List<CardProvisionResult> results = cardService.createProximityCards(cards);
+    assertThat(results.size()).isEqualTo(123);
+    for (int i = 0; i < 120; i++) {
+      assertThat(results.get(i).getStatus()).isEqualTo(Status.CREATED);
+      assertThat(results.get(i).getId()).isNotNull();
+    }
+    assertThat(results.get(120).getStatus()).isEqualTo(Status.DUPLICATE);
+    assertThat(results.get(121).getStatus()).isEqualTo(Status.DUPLICATE);
+    assertThat(results.get(122).getStatus()).isEqualTo(Status.INVALID);
+    log.info(String.format("RESULTS: %s", results.subList(119, 123)));
+
+    ProximityCard card = cardService.loadProximityCardBySerialNo("bulk000119");
+    assertThat(card.getId()).isEqualTo(results.get(119).getId());
+  }
+
+  @Test
+  public void test015() {
+    // testing for disabling cards in bulk
+    List<ProximityCard> cards = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      cards.add(new ProximityCard(String.format("disable%03d", i), "card to disable", true));
+    }
+    List<Long> ids = new ArrayList<>();
+    for (CardProvisionResult result : cardService.createProximityCards(cards)) {
+      ids.add(result.getId());
+    }
+    assertThat(cardService.loadProximityCardById(ids.get(0)).isEnabled()).isTrue();
+    assertThat(cardService.loadProximityCardBySerialNo("disable001").isEnabled()).isTrue();
+
+    assertThat(cardService.updateEnabled(ids, false)).isEqualTo(20);
+    assertThat(cardService.updateEnabled(ids, false)).isEqualTo(0);
+    ProximityCard card = cardService.loadProximityCardById(ids.get(0));
+    assertThat(card.isEnabled()).isFalse();
+    assertThat(card.getLastModifiedAt()).isNotNull();
+    assertThat(cardService.loadProximityCardBySerialNo("disable001").isEnabled()).isFalse();
+  }
+
+  @Test
+  public void test016() {
+    // testing for lookups through the numeric key of hex serial numbers
+    ProximityCard upper = cardService.createProximityCard(new ProximityCard("00AB", "card", true));
+    ProximityCard lower = cardService.createProximityCard(new ProximityCard("ab", "card", true));
+    assertThat(upper.getSerialKey()).isEqualTo(0xABL);
+    assertThat(lower.getSerialKey()).isEqualTo(0xABL);
+    assertThat(cardService.loadProximityCardBySerialNo("00AB").getId()).isEqualTo(upper.getId());
+    assertThat(cardService.loadProximityCardBySerialNo("ab").getId()).isEqualTo(lower.getId());
+
+    List<ProximityCard> cards = new ArrayList<>();
+    cards.add(new ProximityCard("ffffffffffffffff", "bulk card", true));
+    Long id = cardService.createProximityCards(cards).get(0).getId();
+    ProximityCard card = cardService.loadProximityCardBySerialNo("ffffffffffffffff");
+    assertThat(card.getId()).isEqualTo(id);
+    assertThat(card.getSerialKey()).isEqualTo(-1L);
+
+    assertThat(ProximityCard.toSerialKey("card-17")).isNull();
+    assertThat(ProximityCard.toSerialKey("10000000000000000")).isNull();
+  }
+
+  @Test
+  public void test017() {
+    // testing for a card committed by another node with an ID lower than a known one
+    long id = jdbcTemplate.queryForObject("SELECT MAX(id) FROM proximity_cards", Long.class);
+    insertCard(id + 100, "0000000171");
+    cardIndex.refresh();
+    assertThat(cardIndex.rejects("0000000171")).isFalse();
+
+    insertCard(id + 50, "0000000172");
+    assertThat(cardIndex.rejects("0000000172")).isTrue();
+    cardIndex.refresh();
+    assertThat(cardIndex.rejects("0000000172")).isFalse();
+    assertThat(cardService.loadProximityCardBySerialNo("0000000172").getId()).isEqualTo(id + 50);
+  }
+
+  @Test
+  public void test018() {
+    // testing for the door authorization of a card, following the card and owner states
+    ProximityCard card = new ProximityCard("0000000015", "card #15", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("doorman", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+    assertThat(cardService.isAuthorized("0000000015")).isTrue();
+    assertThat(cardService.isAuthorized("unknown")).isFalse();
+
+    userService.updateEnabled(user.getId(), false);
+    assertThat(cardService.isAuthorized("0000000015")).isFalse();
+    userService.updateEnabled(user.getId(), true);
+    assertThat(cardService.isAuthorized("0000000015")).isTrue();
+
+    card.setEnabled(false);
+    cardService.update(card);
+    assertThat(cardService.isAuthorized("0000000015")).isFalse();
+  }
+
+  @Test
+  public void test019() {
+    // testing for the door authorization following the writes of another node
+    ProximityCard card = new ProximityCard("0000000019", "card #19", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("gatekeeper", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    long cardId = user.getProximityCards().iterator().next().getId();
+    assertThat(cardService.isAuthorized("0000000019")).isTrue();
+
+    jdbcTemplate.update("UPDATE users SET is_active = FALSE WHERE id = ?", user.getId());
+    cardIndex.refresh();
+    assertThat(cardService.isAuthorized("0000000019")).isFalse();
+
+    jdbcTemplate.update("UPDATE users SET is_active = TRUE WHERE id = ?", user.getId());
+    jdbcTemplate.update("UPDATE proximity_cards SET is_active = FALSE WHERE id = ?", cardId);
+    cardIndex.refresh();
+    assertThat(cardService.isAuthorized("0000000019")).isFalse();
+
+    // moves the enabled card to a user created by another node
+    jdbcTemplate.update("UPDATE proximity_cards SET is_active = TRUE WHERE id = ?", cardId);
+    jdbcTemplate.update("INSERT INTO users (name, secret, must_change_secret, is_active,"
+        + " created_unix) VALUES ('gatekeeper2', 'secret', FALSE, TRUE, ?)",
+        System.currentTimeMillis());
+    long userId = jdbcTemplate.queryForObject(
+        "SELECT id FROM users WHERE name = 'gatekeeper2'", Long.class);
+    jdbcTemplate.update("UPDATE related_users_proximity_cards SET user_id = ? WHERE card_id = ?",
+        userId, cardId);
+    cardIndex.refresh();
+    assertThat(cardService.isAuthorized("0000000019")).isTrue();
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000019")).isEqualTo(userId);
+  }
+
+  @Test
+  public void test020() {
+    // testing for hex serial numbers matched regardless of case, as the column collation does
+    ProximityCard card = new ProximityCard("00000a1b", "card #20", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(new User("doorkeeper", "123456", false, true, null,
+        new HashSet<ProximityCard>(Arrays.asList(card))));
+    long cardId = user.getProximityCards().iterator().next().getId();
+    assertThat(cardIndex.rejects("00000A1B")).isFalse();
+    assertThat(cardService.loadProximityCardBySerialNo("00000A1B").getId()).isEqualTo(cardId);
+    assertThat(cardService.loadOwnerIdBySerialNo("00000A1B")).isEqualTo(user.getId());
+    assertThat(cardService.isAuthorized("00000A1B")).isTrue();
+
+    // a card written by another node in another case
+    insertCard(cardId + 100, "00000c2d");
+    cardIndex.refresh();
+    assertThat(cardService.loadProximityCardBySerialNo("00000C2D").getId())
+        .isEqualTo(cardId + 100);
+    assertThat(ProximityCard.normalizeSerialNo("00000c2d")).isEqualTo("00000C2D");
+    assertThat(ProximityCard.normalizeSerialNo("card-c2d")).isEqualTo("card-c2d");
+  }
+
+  private void insertCard(long id, String serialNo) {
+    jdbcTemplate.update("INSERT INTO proximity_cards"
+        + " (id, serial_no, serial_key, is_active, created_unix) VALUES (?, ?, ?, TRUE, ?)",
+        id, serialNo, ProximityCard.toSerialKey(serialNo), System.currentTimeMillis());
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opentna.data.model.Occupant;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.User;
+import org.opentna.data.service.impl.OccupancyIndex;
+import org.opentna.rest.RestApplication;
+import org.opentna.rest.configuration.DataConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {RestApplication.class})
+@Import(DataConfiguration.class)
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+@Slf4j
+public class OccupancyServiceTests {
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private RecordService recordService;
+
+  @Autowired
+  private OccupancyService occupancyService;
+
+  @Autowired
+  private OccupancyIndex occupancyIndex;
+
+  @Test
+  public void test001() {
+    // testing for a user toggled in and out by committed taps
+    ProximityCard card = new ProximityCard("0000000010", "card #10", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("occupant", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    int headcount = occupancyService.countOccupants();
+    assertThat(occupancyService.isPresent(user.getId())).isFalse();
+
+    long loggedAt = System.currentTimeMillis();
+    recordService.recordTap("0000000010", loggedAt);
+    log.info(String.format("RETRIEVES: %s", occupancyService.loadOccupants()));
+    assertThat(occupancyService.countOccupants()).isEqualTo(headcount + 1);
+    assertThat(occupancyService.isPresent(user.getId())).isTrue();
+    assertThat(occupancyService.loadOccupants()).contains(new Occupant(user.getId(), loggedAt));
+
+    recordService.recordTap("0000000010", loggedAt + 1000);
+    assertThat(occupancyService.countOccupants()).isEqualTo(headcount);
+    assertThat(occupancyService.isPresent(user.getId())).isFalse();
+  }
+
+  @Test
+  public void test002() {
+    // testing for a user kept in by a tap up to a shift ago, across midnight
+    ProximityCard card = new ProximityCard("0000000020", "card #20", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("nightshift", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+
+    long loggedAt = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(12);
+    recordService.recordTap("0000000020", loggedAt);
+    assertThat(occupancyService.isPresent(user.getId())).isTrue();
+    assertThat(occupancyService.loadOccupants()).contains(new Occupant(user.getId(), loggedAt));
+
+    recordService.recordTap("0000000020", System.currentTimeMillis());
+    assertThat(occupancyService.isPresent(user.getId())).isFalse();
+  }
+
+  @Test
+  public void test003() {
+    // testing for the occupants rebuilt at startup by replaying the streamed records
+    ProximityCard card = new ProximityCard("0000000030", "card #30", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("returner", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+
+    long now = System.currentTimeMillis();
+    recordService.recordTap("0000000030", now - TimeUnit.HOURS.toMillis(12));
+    recordService.recordTap("0000000030", now - TimeUnit.HOURS.toMillis(11));
+    recordService.recordTap("0000000030", now - TimeUnit.HOURS.toMillis(1));
+    List<Occupant> occupants = new ArrayList<>(occupancyService.loadOccupants());
+
+    occupancyIndex.load();
+    assertThat(occupancyService.isPresent(user.getId())).isTrue();
+    assertThat(occupancyService.loadOccupants()).containsExactlyInAnyOrderElementsOf(occupants);
+    assertThat(occupancyService.loadOccupants())
+        .contains(new Occupant(user.getId(), now - TimeUnit.HOURS.toMillis(1)));
+  }
+
+}
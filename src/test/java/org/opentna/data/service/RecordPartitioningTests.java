@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opentna.data.model.entity.Attendance;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.User;
+import org.opentna.data.service.impl.AttendancePartitionManager;
+import org.opentna.rest.RestApplication;
+import org.opentna.rest.configuration.DataConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+    classes = {RestApplication.class},
+    properties = {
+        "opentna.records.partitioning.enabled=true",
+        "opentna.records.partitioning.delete-chunk-size=2"
+    }
+)
+@Import(DataConfiguration.class)
+@Transactional
+public class RecordPartitioningTests {
+
+  // 2000-01-01T00:00:00Z
+  private static final long EXPIRED = 946684800000L;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private RecordService recordService;
+
+  @Autowired
+  private AttendancePartitionManager partitionManager;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Test
+  public void test001() {
+    // testing for expired records being deleted from a table that is not partitioned
+    ProximityCard card = initial();
+    ReflectionTestUtils.setField(partitionManager, "archive", false);
+    try {
+      partitionManager.maintain();
+    } finally {
+      ReflectionTestUtils.setField(partitionManager, "archive", true);
+    }
+    assertThat(count(card, 0L, EXPIRED + 10)).isEqualTo(0);
+    assertThat(count(card, EXPIRED + 10, Long.MAX_VALUE)).isEqualTo(1);
+  }
+
+  @Test
+  public void test002() {
+    // testing for expired records being kept while archiving, as the table is not partitioned
+    ProximityCard card = initial();
+    partitionManager.maintain();
+    assertThat(count(card, 0L, EXPIRED + 10)).isEqualTo(5);
+    assertThat(count(card, EXPIRED + 10, Long.MAX_VALUE)).isEqualTo(1);
+  }
+
+  /**
+   * Saves 5 expired records and a recent one.
+   */
+  private ProximityCard initial() {
+    ProximityCard card = new ProximityCard("0000000903", "card #903", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("archivist", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+    List<Attendance> attendances = new ArrayList<>();
+    for (long loggedAt : new long[] {EXPIRED, EXPIRED + 1, EXPIRED + 2, EXPIRED + 3, EXPIRED + 4,
+        System.currentTimeMillis()}) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      attendances.add(attendance);
+    }
+    recordService.createAttendances(attendances);
+    entityManager.flush();
+    return card;
+  }
+
+  private int count(ProximityCard card, long from, long to) {
+    return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM attendance_records"
+        + " WHERE card_id = ? AND logged_unix >= ? AND logged_unix < ?", Integer.class,
+        card.getId(), from, to);
+  }
+
+}
@@ -18,26 +18,45 @@ package org.opentna.data.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opentna.data.model.AttendanceRow;
+import org.opentna.data.model.KeysetPage;
 import org.opentna.data.model.entity.Attendance;
 import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.Timesheet;
 import org.opentna.data.model.entity.User;
 import org.opentna.rest.RestApplication;
 import org.opentna.rest.configuration.DataConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = {RestApplication.class})
 @Import(DataConfiguration.class)
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
 @Slf4j
 public class RecordServiceTests {
 
@@ -50,6 +69,12 @@ public class RecordServiceTests {
   @Autowired
   private RecordService recordService;
 
+  @Autowired
+  private EntityManager entityManager;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
   private ProximityCard card;
 
   private User user;
@@ -59,7 +84,7 @@ public class RecordServiceTests {
   public void test001() {
     initial();
     Attendance attendance = addRecord(card, user);
-    Attendance result = recordService.loadAttendanceById(1l);
+    Attendance result = recordService.loadAttendanceById(attendance.getId());
     log.info(String.format("%s", attendance));
     assertThat(attendance).hasFieldOrPropertyWithValue("user", user);
     assertThat(attendance).hasFieldOrPropertyWithValue("proximityCard", card);
@@ -75,22 +100,324 @@ public class RecordServiceTests {
     addRecord(card, user);
     addRecord(card, user);
     addRecord(card, user);
-    Collection<Attendance> result1 = recordService.loadAttendanceByUser(user);
-    Collection<Attendance> result2 = recordService.loadAttendanceByProximityCard(card);
+    Collection<AttendanceRow> result1 = recordService.loadAttendanceByUser(user);
+    Collection<AttendanceRow> result2 = recordService.loadAttendanceByProximityCard(card);
     assertThat(result1.size()).isEqualTo(result2.size());
-    for (Attendance att : result1) {
+    for (AttendanceRow att : result1) {
       log.info(String.format("id=%s, logged=%s, created=%s", att.getId(), att.getLoggedAt(),
           att.getCreatedAt()));
     }
   }
 
+  @Test
+  @Transactional
+  public void test003() {
+    initial();
+    long loggedAt = System.currentTimeMillis();
+    List<Attendance> attendances = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + i);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      attendances.add(attendance);
+    }
+    Collection<Attendance> result = recordService.createAttendances(attendances);
+    long createdBefore = System.currentTimeMillis();
+    assertThat(result.size()).isEqualTo(120);
+    for (Attendance att : result) {
+      assertThat(att.getId()).isNotNull();
+      assertThat(att.getCreatedAt()).isBetween(loggedAt, createdBefore);
+    }
+    assertThat(recordService.loadAttendanceByUser(user).size()).isEqualTo(120);
+  }
+
+  @Test
+  public void test004() {
+    // testing for a repeated tap, answered from the recent taps without a round trip
+    ProximityCard card = new ProximityCard("0000000004", "card #4", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("dedupe", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+
+    Attendance attendance = new Attendance();
+    attendance.setLoggedAt(System.currentTimeMillis());
+    attendance.setProximityCard(card);
+    attendance.setUser(user);
+    Attendance first = recordService.createAttendance(attendance);
+    Attendance second = recordService.createAttendance(attendance);
+    Collection<Attendance> batch = recordService.createAttendances(
+        Arrays.asList(attendance, attendance));
+    assertThat(second.getId()).isEqualTo(first.getId());
+    for (Attendance att : batch) {
+      assertThat(att.getId()).isEqualTo(first.getId());
+    }
+    assertThat(recordService.loadAttendanceByUser(user).size()).isEqualTo(1);
+
+    // distinct taps within a batch, then all of them repeated
+    List<Attendance> taps = new ArrayList<>();
+    for (int i = 1; i <= 40; i++) {
+      Attendance tap = new Attendance();
+      tap.setLoggedAt(attendance.getLoggedAt() + i);
+      tap.setProximityCard(card);
+      tap.setUser(user);
+      taps.add(tap);
+    }
+    List<Attendance> saved = new ArrayList<>(recordService.createAttendances(taps));
+    List<Attendance> repeated = new ArrayList<>(recordService.createAttendances(taps));
+    for (int i = 0; i < taps.size(); i++) {
+      assertThat(repeated.get(i).getId()).isEqualTo(saved.get(i).getId());
+    }
+    assertThat(recordService.loadAttendanceByUser(user).size()).isEqualTo(41);
+  }
+
+  @Test
+  public void test005() {
+    // testing for a tap by serial number, resolved from the card index
+    ProximityCard card = new ProximityCard("0000000005", "card #5", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("tapper", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+
+    Attendance attendance = recordService.recordTap("0000000005", System.currentTimeMillis());
+    log.info(String.format("%s", attendance));
+    assertThat(attendance.getId()).isNotNull();
+    assertThat(attendance.getUser().getId()).isEqualTo(user.getId());
+    assertThat(attendance.getProximityCard().getId()).isEqualTo(card.getId());
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000005")).isEqualTo(user.getId());
+  }
+
+  @Test(expected = CardNotFoundException.class)
+  public void test006() {
+    // testing for a tap of an unknown card
+    recordService.recordTap("unknown", System.currentTimeMillis());
+  }
+
+  @Test
+  @Transactional
+  public void test007() {
+    // testing for the keyset pagination of a logged time range
+    initial();
+    long loggedAt = 1520755633520L;
+    List<Attendance> attendances = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + i * 1000);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      attendances.add(attendance);
+    }
+    recordService.createAttendances(attendances);
+
+    // the first and the last 2 records are out of range
+    long from = loggedAt + 2000;
+    long to = loggedAt + 28000;
+    List<AttendanceRow> results = new ArrayList<>();
+    String pageToken = null;
+    int pages = 0;
+    do {
+      KeysetPage<AttendanceRow> page = recordService.loadAttendanceByUser(user, from, to, pageToken,
+          10);
+      results.addAll(page.getContent());
+      pageToken = page.getNextPageToken();
+      pages++;
+    } while (pageToken != null);
+    assertThat(pages).isEqualTo(3);
+    assertThat(results.size()).isEqualTo(26);
+    assertThat(results.get(0).getLoggedAt()).isEqualTo(from);
+    assertThat(results.get(25).getLoggedAt()).isEqualTo(to - 1000);
+
+    KeysetPage<AttendanceRow> page = recordService.loadAttendanceByProximityCard(card, from, to,
+        null, 30);
+    assertThat(page.getContent().size()).isEqualTo(26);
+    assertThat(page.getNextPageToken()).isNull();
+  }
+
+  @Test
+  @Transactional
+  public void test008() {
+    // testing for the streaming export
+    initial();
+    long loggedAt = 1420070400000L;
+    List<Attendance> attendances = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + i * 1000);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      attendances.add(attendance);
+    }
+    List<Attendance> saved = new ArrayList<>(recordService.createAttendances(attendances));
+
+    ByteArrayOutputStream csv = new ByteArrayOutputStream();
+    long count = recordService.exportAttendances(loggedAt, loggedAt + 3000,
+        RecordExportFormat.CSV, csv);
+    String[] lines = new String(csv.toByteArray(), StandardCharsets.UTF_8).split("\r\n");
+    log.info(String.format("EXPORTS: %s", Arrays.toString(lines)));
+    assertThat(count).isEqualTo(3);
+    assertThat(lines.length).isEqualTo(4);
+    assertThat(lines[0]).isEqualTo("id,user_id,serial_no,logged,created");
+    assertThat(lines[1]).contains(",0000000001," + loggedAt + ",");
+
+    ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+    count = recordService.exportAttendances(loggedAt + 1000, loggedAt + 3000,
+        RecordExportFormat.NDJSON, ndjson);
+    StringBuilder expected = new StringBuilder();
+    for (Attendance att : saved.subList(1, 3)) {
+      expected.append(String.format(
+          "{\"id\":%s,\"user_id\":%s,\"serial_no\":\"0000000001\",\"logged\":%s,\"created\":%s}\n",
+          att.getId(), user.getId(), att.getLoggedAt(), att.getCreatedAt()));
+    }
+    log.info(String.format("EXPORTS: %s", ndjson));
+    assertThat(count).isEqualTo(2);
+    assertThat(ndjson.toByteArray())
+        .isEqualTo(expected.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void test009() {
+    // testing for the daily timesheets, maintained by the write path and rebuilt from records
+    ProximityCard card = new ProximityCard("0000000009", "card #9", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("timekeeper", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+    // 2015-01-01T08:00:00Z
+    long loggedAt = 1420099200000L;
+    long[] taps = {0L, 4 * 3600 * 1000L, 9 * 3600 * 1000L, 24 * 3600 * 1000L};
+    for (long tap : taps) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + tap);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      recordService.createAttendance(attendance);
+    }
+    LocalDate from = LocalDate.of(2015, 1, 1);
+    LocalDate to = LocalDate.of(2015, 1, 2);
+
+    List<Timesheet> timesheets = new ArrayList<>(
+        recordService.loadTimesheetsByUser(user.getId(), from, to));
+    log.info(String.format("RETRIEVES: %s", timesheets));
+    assertThat(timesheets.size()).isEqualTo(2);
+    assertThat(timesheets.get(0).getWorkDate()).isEqualTo(from);
+    assertThat(timesheets.get(0).getTapCount()).isEqualTo(3);
+    assertThat(timesheets.get(0).getFirstInAt()).isEqualTo(loggedAt);
+    assertThat(timesheets.get(0).getLastOutAt()).isEqualTo(loggedAt + taps[2]);
+    assertThat(timesheets.get(1).getTapCount()).isEqualTo(1);
+
+    assertThat(recordService.rebuildTimesheets(from, to)).isEqualTo(2);
+    timesheets = new ArrayList<>(recordService.loadTimesheetsByDate(from));
+    assertThat(timesheets.size()).isEqualTo(1);
+    assertThat(timesheets.get(0).getTapCount()).isEqualTo(3);
+    assertThat(timesheets.get(0).getLastOutAt()).isEqualTo(loggedAt + taps[2]);
+  }
+
+  @Test
+  @Transactional
+  public void test010() {
+    // testing for the list APIs reading flat rows in a single statement each
+    initial();
+    long loggedAt = 1520755633520L;
+    List<Attendance> attendances = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + i * 1000);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      attendances.add(attendance);
+    }
+    recordService.createAttendances(attendances);
+    entityManager.flush();
+    entityManager.clear();
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    Collection<AttendanceRow> rows = recordService.loadAttendanceByUser(user);
+    assertThat(rows.size()).isEqualTo(10);
+    assertThat(rows.iterator().next().getUserId()).isEqualTo(user.getId());
+    assertThat(rows.iterator().next().getCardSerial()).isEqualTo(card.getSerialNo());
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+    statistics.clear();
+    assertThat(recordService.loadAttendanceByProximityCard(card).size()).isEqualTo(10);
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+    statistics.clear();
+    assertThat(recordService.loadAttendanceByUser(user, loggedAt, loggedAt + 10000, null, 5)
+        .getContent().size()).isEqualTo(5);
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    assertThat(statistics.getEntityLoadCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void test011() {
+    // testing for disabling users in bulk, revoking the authorization of their cards
+    ProximityCard card = new ProximityCard("0000000016", "card #16", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("contractor", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    assertThat(cardService.isAuthorized("0000000016")).isTrue();
+
+    assertThat(userService.updateEnabled(Arrays.asList(user.getId()), false)).isEqualTo(1);
+    assertThat(userService.loadUserById(user.getId()).isEnabled()).isFalse();
+    assertThat(cardService.isAuthorized("0000000016")).isFalse();
+  }
+
+  @Test
+  public void test012() throws Exception {
+    // testing for concurrent first taps of a user-day, both counted and none lost
+    ProximityCard card = new ProximityCard("0000000012", "card #12", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("earlybird", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    ProximityCard saved = user.getProximityCards().iterator().next();
+    // 2015-02-01T08:00:00Z
+    long loggedAt = 1422777600000L;
+    int taps = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(taps);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Attendance>> futures = new ArrayList<>();
+    for (int i = 0; i < taps; i++) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + i * 1000);
+      attendance.setProximityCard(saved);
+      attendance.setUser(user);
+      futures.add(executor.submit(() -> {
+        start.await();
+        return recordService.createAttendance(attendance);
+      }));
+    }
+    start.countDown();
+    for (Future<Attendance> future : futures) {
+      assertThat(future.get().getId()).isNotNull();
+    }
+    executor.shutdown();
+
+    LocalDate workDate = LocalDate.of(2015, 2, 1);
+    List<Timesheet> timesheets = new ArrayList<>(
+        recordService.loadTimesheetsByUser(user.getId(), workDate, workDate));
+    log.info(String.format("RETRIEVES: %s", timesheets));
+    assertThat(recordService.loadAttendanceByUser(user).size()).isEqualTo(taps);
+    assertThat(timesheets.size()).isEqualTo(1);
+    assertThat(timesheets.get(0).getTapCount()).isEqualTo(taps);
+    assertThat(timesheets.get(0).getFirstInAt()).isEqualTo(loggedAt);
+    assertThat(timesheets.get(0).getLastOutAt()).isEqualTo(loggedAt + (taps - 1) * 1000);
+  }
+
   private void initial() {
     card = new ProximityCard("0000000001", "card #1", true);
     card.setCreatedAt(System.currentTimeMillis());
     log.info(String.format("%s", card));
 
     user = userService.createUser(
-        new User("james", "123456", false, true, null,
+        new User("recorder", "123456", false, true, null,
             new HashSet<ProximityCard>(Arrays.asList(card))));
     log.info(String.format("%s", user));
   }
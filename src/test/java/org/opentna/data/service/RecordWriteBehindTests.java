@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opentna.data.model.entity.Attendance;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.User;
+import org.opentna.rest.RestApplication;
+import org.opentna.rest.configuration.DataConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+    classes = {RestApplication.class},
+    properties = {
+        "opentna.records.write-behind.enabled=true",
+        "opentna.records.write-behind.batch-size=16"
+    }
+)
+@Import(DataConfiguration.class)
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+@Slf4j
+public class RecordWriteBehindTests {
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private RecordService recordService;
+
+  @Test
+  public void test001() throws Exception {
+    // testing for queued records being committed by the writer
+    ProximityCard card = new ProximityCard("0000000901", "card #901", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("writer", "123456", false, true, null,
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+    card = user.getProximityCards().iterator().next();
+
+    long loggedAt = System.currentTimeMillis();
+    for (int i = 0; i < 100; i++) {
+      Attendance attendance = new Attendance();
+      attendance.setLoggedAt(loggedAt + i);
+      attendance.setProximityCard(card);
+      attendance.setUser(user);
+      recordService.submitAttendance(attendance);
+    }
+
+    int size = 0;
+    for (int i = 0; i < 50 && size < 100; i++) {
+      Thread.sleep(100);
+      size = recordService.loadAttendanceByUser(user).size();
+      log.info(String.format("RETRIEVES: size=%s", size));
+    }
+    assertThat(size).isEqualTo(100);
+  }
+
+}
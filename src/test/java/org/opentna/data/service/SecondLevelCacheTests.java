@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.HashSet;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opentna.data.model.UserPatch;
+import org.opentna.data.model.entity.ProximityCard;
+import org.opentna.data.model.entity.Role;
+import org.opentna.data.model.entity.User;
+import org.opentna.data.repository.ProximityCardRepository;
+import org.opentna.data.repository.UserRepository;
+import org.opentna.rest.RestApplication;
+import org.opentna.rest.configuration.DataConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+    classes = {RestApplication.class},
+    properties = {
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=true"
+    }
+)
+@Import(DataConfiguration.class)
+public class SecondLevelCacheTests {
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private ProximityCardRepository proximityCardRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Test
+  public void test001() {
+    // testing for lookups by natural ID and collections being answered by the cache
+    ProximityCard card = new ProximityCard("0000000902", "card #902", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(
+        new User("cached", "123456", false, true, new HashSet<Role>(),
+            new HashSet<ProximityCard>(Arrays.asList(card))));
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    assertThat(proximityCardRepository.isNaturalIdCached()).isTrue();
+    for (int i = 0; i < 2; i++) {
+      assertThat(userService.loadUserByUsername("cached").getId()).isEqualTo(user.getId());
+      assertThat(proximityCardRepository.findBySerialNoOrKey("0000000902", false)).isPresent();
+      new TransactionTemplate(transactionManager).execute(status -> {
+        User entity = userRepository.findById(user.getId()).get();
+        assertThat(entity.getRoles()).isEmpty();
+        assertThat(entity.getProximityCards()).hasSize(1);
+        return null;
+      });
+    }
+    assertThat(statistics.getNaturalIdCacheStatistics("users.byUsername").getHitCount())
+        .isGreaterThan(0);
+    assertThat(statistics.getNaturalIdCacheStatistics("proximityCards.bySerialNo").getHitCount())
+        .isGreaterThan(0);
+    assertThat(statistics.getSecondLevelCacheStatistics("users").getHitCount()).isGreaterThan(0);
+    assertThat(statistics.getSecondLevelCacheStatistics("users.roles").getHitCount())
+        .isGreaterThan(0);
+    assertThat(statistics.getSecondLevelCacheStatistics("users.proximityCards").getHitCount())
+        .isGreaterThan(0);
+    assertThat(meterRegistry.get("opentna.cache.region.hit.ratio").tag("region", "users")
+        .gauge().value()).isGreaterThan(0);
+
+    // testing for renames being seen through the natural ID cache
+    UserPatch patch = new UserPatch();
+    patch.setUsername("cached2");
+    userService.patchUser(user.getId(), patch);
+    assertThat(userService.loadUserByUsername("cached")).isNull();
+    assertThat(userService.loadUserByUsername("cached2").getId()).isEqualTo(user.getId());
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opentna.data.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Records the SQL statements Hibernate prepares, registered by
+ * {@code hibernate.session_factory.statement_inspector}, so that tests can check the columns a
+ * statement writes.
+ *
+ * @author James Ho
+ */
+public class StatementRecorder implements StatementInspector {
+
+  private static final List<String> statements = new ArrayList<>();
+
+  @Override
+  public String inspect(String sql) {
+    synchronized (statements) {
+      statements.add(sql);
+    }
+    return sql;
+  }
+
+  static void clear() {
+    synchronized (statements) {
+      statements.clear();
+    }
+  }
+
+  static List<String> statements() {
+    synchronized (statements) {
+      return new ArrayList<>(statements);
+    }
+  }
+
+}
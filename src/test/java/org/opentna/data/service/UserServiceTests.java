@@ -18,10 +18,27 @@ package org.opentna.data.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManagerFactory;
 import javax.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opentna.data.model.CountMode;
+import org.opentna.data.model.KeysetPage;
+import org.opentna.data.model.UserImportReport;
+import org.opentna.data.model.UserPatch;
+import org.opentna.data.model.UserSummary;
+import org.opentna.data.model.UsernameMatch;
+import org.opentna.data.model.entity.ProximityCard;
 import org.opentna.data.model.entity.User;
 import org.opentna.rest.RestApplication;
 import org.opentna.rest.configuration.DataConfiguration;
@@ -29,18 +46,35 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = {RestApplication.class})
 @Import(DataConfiguration.class)
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
 @Slf4j
 public class UserServiceTests {
 
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private CardService cardService;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
   @Test
   public void test001() {
     // testing for a correct username
@@ -173,11 +207,314 @@ public class UserServiceTests {
     log.info(String.format("%s", user));
 
     assertThat(user).hasFieldOrPropertyWithValue("username", "tester");
-    assertThat(user).hasFieldOrPropertyWithValue("password", "123456");
+    assertThat(user.getPassword()).isNotEqualTo("123456");
+    assertThat(new BCryptPasswordEncoder().matches("123456", user.getPassword())).isTrue();
     assertThat(user).hasFieldOrPropertyWithValue("mustChangePassword", false);
     assertThat(user).hasFieldOrPropertyWithValue("enabled", true);
     assertThat(user).hasFieldOrProperty("createdAt");
     assertThat(user).hasFieldOrProperty("lastModifiedAt");
   }
 
-}
\ No newline at end of file
+  @Test
+  public void test018() {
+    // testing for a partial update leaving the other columns and the associations untouched
+    ProximityCard card = new ProximityCard("0000000018", "card #18", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(new User("patcher", "123456", false, true, null,
+        new HashSet<ProximityCard>(Arrays.asList(card))));
+    assertThat(cardService.isAuthorized("0000000018")).isTrue();
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    StatementRecorder.clear();
+    UserPatch patch = new UserPatch();
+    patch.setEnabled(false);
+    User patched = userService.patchUser(user.getId(), patch);
+    assertThat(patched.isEnabled()).isFalse();
+    assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+    List<String> updates = StatementRecorder.statements().stream()
+        .filter(sql -> sql.startsWith("update users ")).collect(Collectors.toList());
+    log.info(String.format("UPDATES: %s", updates));
+    assertThat(updates).containsExactly(
+        "update users set modified_unix=?, is_active=? where id=?");
+    assertThat(statistics.getCollectionLoadCount()).isEqualTo(0);
+    assertThat(statistics.getCollectionUpdateCount()).isEqualTo(0);
+    assertThat(statistics.getCollectionRecreateCount()).isEqualTo(0);
+
+    User loaded = userService.loadUserById(user.getId());
+    assertThat(loaded.getPassword()).isEqualTo(user.getPassword());
+    assertThat(loaded.getLastModifiedAt()).isNotNull();
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000018")).isEqualTo(user.getId());
+    assertThat(cardService.isAuthorized("0000000018")).isFalse();
+  }
+
+  @Test
+  public void test019() {
+    // testing for keyset pagination by username and by ID
+    for (int i = 4; i >= 0; i--) {
+      userService.createUser(new User("keyset:" + i, "123456", false, true, null, null));
+    }
+    List<String> usernames = new ArrayList<>();
+    KeysetPage<User> page = userService.loadAllUserByUsername(null, 2, CountMode.EXACT);
+    long total = page.getTotalElements();
+    while (true) {
+      page.getContent().forEach(user -> usernames.add(user.getUsername()));
+      if (page.getNextPageToken() == null) {
+        break;
+      }
+      page = userService.loadAllUserByUsername(page.getNextPageToken(), 2, CountMode.NONE);
+      assertThat(page.getTotalElements()).isNull();
+    }
+    assertThat(usernames.size()).isEqualTo(total);
+    assertThat(usernames).isSorted();
+    assertThat(usernames).containsSubsequence("keyset:0", "keyset:1", "keyset:2", "keyset:3");
+
+    List<Long> ids = new ArrayList<>();
+    page = userService.loadAllUserById(null, 3, CountMode.APPROXIMATE);
+    assertThat(page.getTotalElements()).isEqualTo(total);
+    while (true) {
+      page.getContent().forEach(user -> ids.add(user.getId()));
+      if (page.getNextPageToken() == null) {
+        break;
+      }
+      page = userService.loadAllUserById(page.getNextPageToken(), 3, CountMode.APPROXIMATE);
+    }
+    assertThat(ids.size()).isEqualTo(total);
+    assertThat(ids).isSorted();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test020() {
+    // testing for an incorrect page size
+    userService.loadAllUserById(null, 0, CountMode.NONE);
+  }
+
+  @Test
+  public void test021() {
+    // testing for user summaries read without loading entities
+    for (int i = 0; i < 3; i++) {
+      userService.createUser(new User("summary:" + i, "123456", false, true, null, null));
+    }
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    KeysetPage<UserSummary> page = userService.loadAllUserSummaryByUsername(null, 2,
+        CountMode.NONE);
+    assertThat(page.getContent().size()).isEqualTo(2);
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    assertThat(statistics.getEntityLoadCount()).isEqualTo(0);
+
+    List<User> users = userService.loadAllUserByUsername(null, 3, CountMode.NONE).getContent();
+    page = userService.loadAllUserSummaryByUsername(page.getNextPageToken(), 1, CountMode.NONE);
+    assertThat(page.getContent().get(0).getId()).isEqualTo(users.get(2).getId());
+    assertThat(page.getContent().get(0).getUsername()).isEqualTo(users.get(2).getUsername());
+    assertThat(page.getContent().get(0).isEnabled()).isEqualTo(users.get(2).isEnabled());
+
+    page = userService.loadAllUserSummaryById(null, 1, CountMode.EXACT);
+    assertThat(page.getContent().get(0).getId()).isEqualTo(
+        userService.loadAllUserById(null, 1, CountMode.NONE).getContent().get(0).getId());
+    assertThat(page.getTotalElements()).isGreaterThan(1L);
+
+    Page<UserSummary> summaries = userService.loadAllUserSummaryByPaginated(
+        PageRequest.of(0, 2, Sort.by("username")));
+    assertThat(summaries.getTotalElements()).isEqualTo(page.getTotalElements());
+    assertThat(summaries.getContent().get(0).getUsername()).isEqualTo(users.get(0).getUsername());
+  }
+
+  @Test
+  public void test022() {
+    // testing for password verification
+    User user = userService.createUser(new User("verifier", "123456", false, true, null, null));
+    assertThat(user.getPassword()).startsWith("$2a$");
+    assertThat(userService.verifyPassword("verifier", "123456")).isTrue();
+    assertThat(userService.verifyPassword("verifier", "654321")).isFalse();
+    assertThat(userService.verifyPassword("nobody", "123456")).isFalse();
+
+    userService.changePassword(user.getId(), "654321");
+    assertThat(userService.verifyPassword("verifier", "123456")).isFalse();
+    assertThat(userService.verifyPassword("verifier", "654321")).isTrue();
+
+    userService.updateEnabled(user.getId(), false);
+    assertThat(userService.verifyPassword("verifier", "654321")).isFalse();
+  }
+
+  @Test
+  public void test023() {
+    // testing for repeated verifications answered from the credential cache
+    User user = userService.createUser(new User("kiosk", "123456", false, true, null, null));
+    assertThat(userService.verifyPassword("kiosk", "123456")).isTrue();
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+    assertThat(userService.verifyPassword("kiosk", "123456")).isTrue();
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+    assertThat(userService.verifyPassword("kiosk", "654321")).isFalse();
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+    userService.changePassword(user.getId(), "654321");
+    assertThat(userService.verifyPassword("kiosk", "123456")).isFalse();
+    assertThat(userService.verifyPassword("kiosk", "654321")).isTrue();
+
+    userService.updateEnabled(Arrays.asList(user.getId()), false);
+    assertThat(userService.verifyPassword("kiosk", "654321")).isFalse();
+  }
+
+  @Test
+  public void test024() {
+    // testing for a bulk import with a per-row report
+    cardService.createProximityCard(new ProximityCard("0000000024", "card #24", true));
+    UserImportReport report = userService.importUsers(csv(
+        "username,password,enabled,must_change_password,cards",
+        "importer1,secret1,true,false,0000000024",
+        "importer2,,false,,",
+        "\"importer,3\",,,,",
+        "x,,,,",
+        "importer1,,,,",
+        "importer4,,,,0000000999"), false);
+    log.info(String.format("IMPORTS: %s", report));
+    assertThat(report.getCreated()).isEqualTo(3);
+    assertThat(report.getFailed()).isEqualTo(3);
+    assertThat(report.getFailures().get(0).getLine()).isEqualTo(5);
+    assertThat(userService.verifyPassword("importer1", "secret1")).isTrue();
+    assertThat(userService.loadUserByUsername("importer,3").isMustChangePassword()).isTrue();
+    User owner = userService.loadUserByUsername("importer1");
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000024")).isEqualTo(owner.getId());
+    assertThat(cardService.isAuthorized("0000000024")).isTrue();
+
+    // moves the card to a disabled user, leaves the unchanged users as they are
+    report = userService.importUsers(csv(
+        "username,enabled,cards",
+        "importer1,true,",
+        "importer2,false,0000000024",
+        "importer5,,"), false);
+    assertThat(report.getUpdated()).isEqualTo(1);
+    assertThat(report.getUnchanged()).isEqualTo(1);
+    assertThat(report.getCreated()).isEqualTo(1);
+    User importer2 = userService.loadUserByUsername("importer2");
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000024")).isEqualTo(importer2.getId());
+    assertThat(cardService.isAuthorized("0000000024")).isFalse();
+    assertThat(userService.verifyPassword("importer1", "secret1")).isTrue();
+  }
+
+  @Test
+  public void test025() {
+    // testing for typeahead searches by username prefix
+    User user = userService.createUser(new User("Typeahead", "123456", false, true, null, null));
+    userService.createUser(new User("typeahead2", "123456", false, true, null, null));
+    userService.createUser(new User("typist", "123456", false, true, null, null));
+
+    List<UsernameMatch> matches = userService.searchByUsernamePrefix("TYPE", 10);
+    assertThat(matches).extracting(UsernameMatch::getUsername)
+        .containsExactly("Typeahead", "typeahead2");
+    assertThat(matches.get(0).getId()).isEqualTo(user.getId());
+    assertThat(userService.searchByUsernamePrefix("typ", 1).size()).isEqualTo(1);
+    assertThat(userService.searchByUsernamePrefix("typ", 10).size()).isEqualTo(3);
+
+    UserPatch patch = new UserPatch();
+    patch.setUsername("renamed");
+    userService.patchUser(user.getId(), patch);
+    assertThat(userService.searchByUsernamePrefix("type", 10))
+        .extracting(UsernameMatch::getUsername).containsExactly("typeahead2");
+    assertThat(userService.searchByUsernamePrefix("renam", 10))
+        .extracting(UsernameMatch::getId).containsExactly(user.getId());
+  }
+
+  @Test
+  @Transactional
+  public void test026() {
+    // testing for a bulk update seen by the users loaded earlier in the transaction
+    User user = userService.createUser(new User("bulk", "123456", false, true, null, null));
+    assertThat(userService.loadUserById(user.getId()).isEnabled()).isTrue();
+    assertThat(userService.updateEnabled(Arrays.asList(user.getId()), false)).isEqualTo(1);
+    assertThat(userService.loadUserById(user.getId()).isEnabled()).isFalse();
+  }
+
+  @Test
+  public void test027() {
+    // testing for a full update resolving the cards instead of merging the given ones
+    ProximityCard card = new ProximityCard("0000000027", "card #27", true);
+    card.setCreatedAt(System.currentTimeMillis());
+    User user = userService.createUser(new User("updater", "123456", false, true, null,
+        new HashSet<ProximityCard>(Arrays.asList(card))));
+    long cardId = user.getProximityCards().iterator().next().getId();
+
+    ProximityCard detached = new ProximityCard("0000000027", "modified by the caller", false);
+    detached.setId(cardId);
+    User update = new User("updater", "654321", false, true, null,
+        new HashSet<ProximityCard>(Arrays.asList(detached)));
+    update.setId(user.getId());
+    userService.updateUser(update);
+
+    ProximityCard loaded = cardService.loadProximityCardById(cardId);
+    assertThat(loaded.getDescription()).isEqualTo("card #27");
+    assertThat(loaded.isEnabled()).isTrue();
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000027")).isEqualTo(user.getId());
+    assertThat(userService.verifyPassword("updater", "654321")).isTrue();
+  }
+
+  @Test
+  public void test028() {
+    // testing for a plaintext secret saved before passwords were hashed
+    User user = userService.createUser(new User("legacy", "123456", false, true, null, null));
+    jdbcTemplate.update("UPDATE users SET secret = 'plaintext' WHERE id = ?", user.getId());
+    assertThat(userService.verifyPassword("legacy", "123456")).isFalse();
+    assertThat(userService.verifyPassword("legacy", "plaintext")).isTrue();
+    String secret = jdbcTemplate.queryForObject("SELECT secret FROM users WHERE id = ?",
+        String.class, user.getId());
+    assertThat(secret).startsWith("$2a$");
+    assertThat(new BCryptPasswordEncoder().matches("plaintext", secret)).isTrue();
+
+    // the locked secret of the users imported without a password
+    jdbcTemplate.update("UPDATE users SET secret = '!' WHERE id = ?", user.getId());
+    assertThat(userService.verifyPassword("legacy", "!")).isFalse();
+  }
+
+  @Test
+  public void test029() {
+    // testing for an import disabling the enabled users left out of the roster
+    userService.createUser(new User("stayer", "123456", false, true, null, null));
+    User leaver = userService.createUser(new User("leaver", "123456", false, true, null, null));
+    List<String> roster = new ArrayList<>();
+    roster.add("username,password");
+    for (String username : jdbcTemplate.queryForList(
+        "SELECT name FROM users WHERE is_active = TRUE AND name <> 'leaver'", String.class)) {
+      roster.add("\"" + username.replace("\"", "\"\"") + "\",");
+    }
+    roster.add("importer6,secret6");
+    roster.add("importer7,secret7");
+
+    // skipped while any row failed
+    List<String> failing = new ArrayList<>(roster);
+    failing.add("x,");
+    UserImportReport report = userService.importUsers(csv(failing.toArray(new String[0])), true);
+    assertThat(report.getFailed()).isEqualTo(1);
+    assertThat(report.getDisabled()).isEqualTo(0);
+    assertThat(userService.loadUserById(leaver.getId()).isEnabled()).isTrue();
+
+    report = userService.importUsers(csv(roster.toArray(new String[0])), true);
+    assertThat(report.getFailed()).isEqualTo(0);
+    assertThat(report.getDisabled()).isEqualTo(1);
+    assertThat(userService.loadUserById(leaver.getId()).isEnabled()).isFalse();
+    assertThat(userService.loadUserByUsername("stayer").isEnabled()).isTrue();
+    assertThat(userService.verifyPassword("importer6", "secret6")).isTrue();
+    assertThat(userService.verifyPassword("importer7", "secret7")).isTrue();
+  }
+
+  @Test
+  public void test030() {
+    // testing for a new user owning a card looked up through the card service
+    cardService.createProximityCard(new ProximityCard("0000000030", "card #30", true));
+    ProximityCard card = cardService.loadProximityCardBySerialNo("0000000030");
+    User user = userService.createUser(new User("holder", "123456", false, true, null,
+        new HashSet<ProximityCard>(Arrays.asList(card))));
+    assertThat(user.getProximityCards()).extracting(ProximityCard::getId)
+        .containsExactly(card.getId());
+    assertThat(cardService.loadOwnerIdBySerialNo("0000000030")).isEqualTo(user.getId());
+    assertThat(cardService.isAuthorized("0000000030")).isTrue();
+  }
+
+  private static ByteArrayInputStream csv(String... lines) {
+    return new ByteArrayInputStream(
+        String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+  }
+
+}